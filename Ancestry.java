@@ -0,0 +1,114 @@
+import java.util.BitSet;
+import java.util.PriorityQueue;
+
+
+/**
+ * The ancestor relation of a Bayesian Network, computed once when the network is loaded.
+ * Up to CLOSURE_LIMIT nodes the transitive closure is kept as one bit set of ancestors per node, filled in
+ * topological order, parents before children, so the ancestors of a set of nodes are the union of their rows.
+ * Larger networks, whose closure would grow with the square of the nodes, keep nothing and walk the parent edges
+ * from the nodes instead, which is linear in the nodes and edges of the network.
+ * Nodes are referred to by id. The relation is immutable and may be used by several threads.
+ */
+public final class Ancestry {
+    static final int CLOSURE_LIMIT = 10_000;    // Largest network whose closure is kept as a bit matrix
+
+    private final NetworkGraph graph;           // Parents and children of each node
+    private final BitSet[] ancestors;           // Strict ancestors of each node, or null if the network is too large
+
+    /**
+     * Computes the ancestor relation of a network.
+     * @param graph The graph of the network
+     */
+    public Ancestry(NetworkGraph graph) {
+        this(graph, graph.size() <= CLOSURE_LIMIT);
+    }
+
+    /**
+     * Computes the ancestor relation of a network in the given form.
+     * @param graph   The graph of the network
+     * @param closure true to keep the bit matrix of the closure, false to walk the parent edges on each use
+     */
+    Ancestry(NetworkGraph graph, boolean closure) {
+        this.graph = graph;
+        if (closure) {
+            int n = graph.size();
+            int[] parentOffsets = graph.getParentOffsets();
+            int[] parents = graph.getParents();
+            this.ancestors = new BitSet[n];
+            for (int node : topologicalOrder(graph)) {
+                ancestors[node] = new BitSet(n);
+                for (int i = parentOffsets[node]; i < parentOffsets[node + 1]; i++) {
+                    ancestors[node].or(ancestors[parents[i]]);
+                    ancestors[node].set(parents[i]);
+                }
+            }
+        } else {
+            this.ancestors = null;
+        }
+    }
+
+    /**
+     * Orders the nodes so that every node comes after its parents, taking the lowest id among the nodes ready.
+     * @param graph The graph of the network
+     * @return The node ids in topological order
+     */
+    private static int[] topologicalOrder(NetworkGraph graph) {
+        int n = graph.size();
+        int[] childOffsets = graph.getChildOffsets();
+        int[] children = graph.getChildren();
+        int[] waiting = new int[n];                     // Parents of each node not yet ordered
+        PriorityQueue<Integer> ready = new PriorityQueue<>();
+        for (int node = 0; node < n; node++) {
+            waiting[node] = graph.parentCount(node);
+            if (waiting[node] == 0) {
+                ready.add(node);
+            }
+        }
+        int[] order = new int[n];
+        int count = 0;
+        while (!ready.isEmpty()) {
+            int node = ready.poll();
+            order[count++] = node;
+            for (int i = childOffsets[node]; i < childOffsets[node + 1]; i++) {
+                if (--waiting[children[i]] == 0) {
+                    ready.add(children[i]);
+                }
+            }
+        }
+        if (count < n) {
+            throw new IllegalArgumentException("The network has a directed cycle");
+        }
+        return order;
+    }
+
+    /**
+     * Collects some nodes and all their ancestors.
+     * @param nodes The ids of the nodes
+     * @return A new bit set of the ids of the ancestral set
+     */
+    public BitSet ancestralSet(BitSet nodes) {
+        BitSet ancestral = (BitSet) nodes.clone();
+        if (ancestors != null) {
+            nodes.stream().forEach(node -> ancestral.or(ancestors[node]));
+            return ancestral;
+        }
+        int[] parentOffsets = graph.getParentOffsets();
+        int[] parents = graph.getParents();
+        int[] worklist = new int[graph.size()];         // Node ids whose parents are not yet visited
+        int pending = 0;                                // Each node is pushed at most once
+        for (int node = nodes.nextSetBit(0); node >= 0; node = nodes.nextSetBit(node + 1)) {
+            worklist[pending++] = node;
+        }
+        while (pending > 0) {
+            int node = worklist[--pending];
+            for (int i = parentOffsets[node]; i < parentOffsets[node + 1]; i++) {
+                if (!ancestral.get(parents[i])) {
+                    ancestral.set(parents[i]);
+                    worklist[pending++] = parents[i];
+                }
+            }
+        }
+        return ancestral;
+    }
+}
@@ -1,20 +1,37 @@
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
-
-
+import java.util.BitSet;
+import java.util.List;
+
+
+/**
+ * Decides conditional independence in a Bayesian Network with the Bayes Ball algorithm: a ball starts at one node
+ * and is passed along the edges, and a node the ball reaches is d-connected to it given the evidence.
+ * A ball arriving at an unobserved node from a child passes on to its parents and children, and one arriving from
+ * a parent passes on to its children. A ball arriving at an observed node from a parent bounces back to its
+ * parents, and one arriving from a child stops.
+ * The traversal keeps its state in two bit sets over node ids, for the balls arriving from a parent and from a
+ * child, and in an array of node ids to visit, so it runs in O(V+E) without recursion and leaves the network unchanged.
+ * Any number of checks may run at the same time on one network. Checks that share a node and the evidence
+ * share one pass, which collects every node d-connected to that node and is kept in the network's cache of
+ * passes, and the answers are kept in the network's independence cache, so a repeated check is a single lookup.
+ */
 public class BayesBall {
 
-    // Colors for different types of nodes
-    public static final String UNVISITED_COLOR = "white";
-    public static final String EVIDENCE_COLOR = "red";
-    public static final String QUERY_COLOR = "blue";
-    public static final String VISITED_COLOR = "green";
-    public static final String TARGET_COLOR = "black";
-
+    /**
+     * The start of a pass of the ball, which decides the nodes it reaches.
+     * @param source   The id of the node the ball starts from
+     * @param evidence The ids of the evidence nodes, not changed once the key is built
+     */
+    public record Pass(int source, BitSet evidence) {
+    }
 
     /**
      * Checks if two nodes (queryNode and targetNode) in a Bayesian Network are conditionally independent given a set of evidence nodes.
+     * A node is taken as dependent on itself, and on a node observed as evidence.
+     * The answer is read from the nodes d-connected to either of them when a pass from it with the same evidence
+     * is cached in the network. Otherwise the nodes d-connected to queryNode are collected in one pass and cached,
+     * so later checks from queryNode or to it with this evidence are lookups. Either way, an answer the network's
+     * independence cache holds for the pair and evidence is used as it is.
      *
      * @param network    The Bayesian Network containing the nodes.
      * @param queryNode  The node for which independence is being queried.
@@ -23,161 +40,126 @@ public class BayesBall {
      * @return           "yes" if queryNode and targetNode are independent given the evidences, otherwise "no".
      */
     public static String checkIndependence(BayesianNetwork network, Node queryNode, Node targetNode, ArrayList<Node> evidences) {
-
-        // Reset all node colors to 'white' before starting a new query
-        for (Node node : network.getNodes()) {
-            node.setColor(UNVISITED_COLOR);
-            node.setIsColored(false);
-        }
-
-        // Initial check for direct child or parent relationship
-        if (queryNode.getChildren().contains(targetNode) || queryNode.getParents().contains(targetNode)) {
-            return "no";  // Direct dependency exists
-        }
-
-        // Initial check for equality
-        if (queryNode.getNodeName().equals(targetNode.getNodeName())) {
-            return "no";  // Same node, dependent
-        }
-
-        // Check if queryNode and targetNode share a common ancestor but the common ancestor is not in the evidence
-        Set<Node> queryAncestors = getAllAncestors(queryNode);
-        Set<Node> targetAncestors = getAllAncestors(targetNode);
-
-        // Find common ancestors between query and target
-        queryAncestors.retainAll(targetAncestors);  // Find common ancestors
-
-        if (!queryAncestors.isEmpty()) {
-            // If there are common ancestors, check if any of them are in the evidence
-            boolean hasCommonAncestorInEvidence = false;
-            for (Node ancestor : queryAncestors) {
-                if (evidences != null && evidences.contains(ancestor)) {
-                    hasCommonAncestorInEvidence = true;
-                    break;
+        BitSet evidence = evidenceSet(network, evidences);
+        int query = queryNode.getNodeId();
+        int target = targetNode.getNodeId();
+        IndependenceCache.Key key = IndependenceCache.Key.of(query, target, evidence);
+        Boolean isIndependent = network.getIndependenceCache().get(key);
+        if (isIndependent == null) {
+            if (query == target || evidence.get(query) || evidence.get(target)) {
+                isIndependent = isIndependent(network, query, target, evidence);
+            } else {
+                LruCache<Pass, BitSet> passes = network.getPassCache();
+                BitSet connected = passes.get(new Pass(target, evidence));  // d-separation is symmetric
+                if (connected == null) {
+                    connected = passes.get(new Pass(query, evidence));
                 }
+                if (connected == null) {
+                    connected = dConnectedNodes(network, query, evidence);
+                    passes.put(new Pass(query, evidence), connected);
+                }
+                isIndependent = !connected.get(query) || !connected.get(target);
             }
-
-            // If they share a common ancestor that is not an evidence, return independent
-            if (!hasCommonAncestorInEvidence) {
-                return "no";  // Independent because they share the same ancestor which is not in the evidence
-            }
+            network.getIndependenceCache().put(key, isIndependent);
         }
+        if (Trace.isEnabled(Trace.Level.INFO)) {
+            Trace.event(Trace.Level.INFO, Trace.Event.INDEPENDENCE_CHECKED, queryNode.getNodeName() + "-" + targetNode.getNodeName(),
+                    isIndependent ? 1 : 0);
+        }
+        return isIndependent ? "yes" : "no";  // "no" means not independent, "yes" means independent
+    }
 
-        // Color the evidence nodes
+    /**
+     * Collects the ids of some evidence nodes.
+     *
+     * @param network   The Bayesian Network containing the nodes
+     * @param evidences The evidence nodes, or null for none
+     * @return A new bit set of their ids
+     */
+    private static BitSet evidenceSet(BayesianNetwork network, List<Node> evidences) {
+        BitSet evidence = new BitSet(network.getSymbolTable().size());
         if (evidences != null) {
-            for (Node evidence : evidences) {
-                evidence.setColor(EVIDENCE_COLOR);  // Mark as evidence and color it
+            for (Node node : evidences) {
+                evidence.set(node.getNodeId());
             }
         }
-
-        // Start traversal from the query node
-        Set<Node> visited = new HashSet<>();
-        queryNode.setColor(QUERY_COLOR);  // Color the query node
-        traverse(queryNode, null, visited, false, false, network, queryNode, targetNode);
-
-        // Check if target node was visited
-        boolean isIndependent = !targetNode.isColored();
-        System.out.println("Independence result between " + queryNode.getNodeName() + " and " + targetNode.getNodeName() + ": " + (isIndependent ? "yes" : "no"));
-        return targetNode.isColored() ? "no" : "yes";  // "no" means not independent, "yes" means independent
+        return evidence;
     }
 
     /**
-     * Traverses the Bayesian Network to check for conditional independence.
+     * Checks if two nodes are d-separated by the evidence, stopping as soon as the ball reaches the target.
      *
-     * @param currentNode     The current node being visited.
-     * @param comingFrom      The node from which the current node was reached.
-     * @param visited         A set of nodes that have already been visited.
-     * @param reachedFromChild Indicates if the current node was reached from a child node.
-     * @param reachedFromParent Indicates if the current node was reached from a parent node.
-     * @param network         The Bayesian Network containing the nodes.
-     * @param queryNode       The node for which independence is being queried.
-     * @param targetNode      The node which is being checked for independence from the queryNode.
+     * @param network  The Bayesian Network containing the nodes
+     * @param query    The id of the node the ball starts from
+     * @param target   The id of the other node
+     * @param evidence The ids of the evidence nodes
+     * @return true if the ball cannot reach the target
      */
-    static void traverse(Node currentNode, Node comingFrom, Set<Node> visited, boolean reachedFromChild, boolean reachedFromParent, BayesianNetwork network, Node queryNode, Node targetNode) {
-
-        if (currentNode == null) {
-            return;
-        }
-
-        visited.add(currentNode);
-
-        // Apply color if not a special node
-        if (currentNode.getColor().equals(UNVISITED_COLOR)) {
-            currentNode.setColor(VISITED_COLOR);
-        }
-
-        // Handle evidence node specifics
-        if (currentNode.getColor().equals(EVIDENCE_COLOR)) {
-            if (reachedFromChild) {
-                return; // Stop if reached from child
-            }
-            // Only traverse to other parents if reached from a parent
-            if (reachedFromParent) {
-                for (Node parent : currentNode.getParents()) {
-                    traverse(parent, currentNode, visited, true, false, network, queryNode, targetNode);
-                }
-            }
-        } else {
-            // Non-evidence nodes
-            if (reachedFromParent || comingFrom == null) {
-                // Reached from parent: continue to children
-                for (Node child : currentNode.getChildren()) {
-                    if (!visited.contains(child)) {
-                        if (child.equals(targetNode)) {
-                            child.setColor(TARGET_COLOR);
-                            return;
-                        }
-                        traverse(child, currentNode, visited, false, true, network, queryNode, targetNode);
-                    }
-                }
-            } else if (reachedFromChild) {
-                // Reached from child: continue to both children and parents
-                for (Node child : currentNode.getChildren()) {
-                    if (!visited.contains(child) && child != comingFrom) {
-                        if (child.equals(targetNode)) {
-                            child.setColor(TARGET_COLOR);
-                            return;
-                        }
-                        traverse(child, currentNode, visited, false, true, network, queryNode, targetNode);
-                    }
-                }
-                for (Node parent : currentNode.getParents()) {
-                    if (!visited.contains(parent) && parent != comingFrom) {
-                        if (parent.equals(targetNode)) {
-                            parent.setColor(TARGET_COLOR);
-                            return;
-                        }
-                        traverse(parent, currentNode, visited, true, false, network, queryNode, targetNode);
-                    }
-                }
-            }
+    public static boolean isIndependent(BayesianNetwork network, int query, int target, BitSet evidence) {
+        if (query == target || evidence.get(query) || evidence.get(target)) {
+            return false;
         }
+        return !passBall(network, query, evidence, target).get(target);
     }
 
     /**
-     * Helper method to get all ancestors of a node.
+     * Collects every node d-connected to a source given the evidence, in a single pass of the ball, so that the
+     * independence of the source from any number of nodes can be read from the one set.
      *
-     * @param node The node whose ancestors are to be found.
-     * @return A set containing all ancestors of the given node.
+     * @param network  The Bayesian Network containing the nodes
+     * @param source   The id of the node the ball starts from
+     * @param evidence The ids of the evidence nodes
+     * @return The ids of the unobserved nodes the ball reaches, including the source unless it is observed
      */
-    private static Set<Node> getAllAncestors(Node node) {
-        Set<Node> ancestors = new HashSet<>();
-        getAncestorsRecursive(node, ancestors);
-        return ancestors;
+    public static BitSet dConnectedNodes(BayesianNetwork network, int source, BitSet evidence) {
+        return passBall(network, source, evidence, -1);
     }
 
     /**
-     * Recursively finds all ancestors of a given node.
+     * Passes the ball from a source until no ball moves or the target is reached.
      *
-     * @param node The current node whose ancestors are being found.
-     * @param ancestors A set to store all the found ancestors.
+     * @param network  The Bayesian Network containing the nodes
+     * @param source   The id of the node the ball starts from
+     * @param evidence The ids of the evidence nodes
+     * @param target   The id of a node at which to stop, or -1 to pass the ball everywhere it can go
+     * @return The ids of the unobserved nodes reached so far
      */
-    private static void getAncestorsRecursive(Node node, Set<Node> ancestors) {
-        for (Node parent : node.getParents()) {
-            if (!ancestors.contains(parent)) {
-                ancestors.add(parent);
-                getAncestorsRecursive(parent, ancestors);  // Recur to find ancestors of the parent
+    private static BitSet passBall(BayesianNetwork network, int source, BitSet evidence, int target) {
+        NetworkGraph graph = network.getGraph();
+        int[] parentOffsets = graph.getParentOffsets();
+        int[] parents = graph.getParents();
+        int[] childOffsets = graph.getChildOffsets();
+        int[] children = graph.getChildren();
+
+        BitSet fromChild = new BitSet(graph.size());    // Nodes a ball arrived at from a child (or started at)
+        BitSet fromParent = new BitSet(graph.size());   // Nodes a ball arrived at from a parent
+        int[] worklist = new int[2 * graph.size()];     // Node ids, complemented (~id) for the balls from a parent
+        int pending = 0;                                // Each node is pushed at most once from each side
+        fromChild.set(source);
+        worklist[pending++] = source;
+        while (pending > 0 && (target < 0 || !fromChild.get(target) && !fromParent.get(target))) {
+            int visit = worklist[--pending];
+            int id = visit >= 0 ? visit : ~visit;
+            boolean observed = evidence.get(id);
+            if (visit >= 0 ? !observed : observed) {
+                for (int i = parentOffsets[id]; i < parentOffsets[id + 1]; i++) {
+                    if (!fromChild.get(parents[i])) {
+                        fromChild.set(parents[i]);
+                        worklist[pending++] = parents[i];
+                    }
+                }
+            }
+            if (!observed) {
+                for (int i = childOffsets[id]; i < childOffsets[id + 1]; i++) {
+                    if (!fromParent.get(children[i])) {
+                        fromParent.set(children[i]);
+                        worklist[pending++] = ~children[i];
+                    }
+                }
             }
         }
+        fromChild.or(fromParent);
+        fromChild.andNot(evidence);
+        return fromChild;
     }
 }
@@ -1,3 +1,4 @@
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -9,12 +10,23 @@ import java.util.Map;
  */
 public class BayesianNetwork implements Cloneable {
     private Map<String, Node> nodes;
+    private SymbolTable symbolTable;    // Interned variable names and outcomes of the network
+    private QueryPlanCache planCache;   // Compiled variable elimination plans of recent query shapes
+    private IndependenceCache independenceCache;    // Answers to recent independence queries
+    private LruCache<BayesBall.Pass, BitSet> passCache; // Nodes reached by recent passes of the Bayes Ball
+    private JunctionTree junctionTree;  // Clique tree of the network, built on first use
+    private NetworkGraph graph;         // Compact parents and children by id, built once the structure is final
+    private Ancestry ancestry;          // Ancestor relation, built once the structure is final
 
     /**
      * Constructs an empty Bayesian Network.
      */
     public BayesianNetwork() {
         this.nodes = new HashMap<>();
+        this.symbolTable = new SymbolTable();
+        this.planCache = new QueryPlanCache(64);
+        this.independenceCache = new IndependenceCache(1024);
+        this.passCache = new LruCache<>(256);
     }
 
     /**
@@ -42,6 +54,87 @@ public class BayesianNetwork implements Cloneable {
         return nodes.values();
     }
 
+    /**
+     * Retrieves the symbol table interning the variable names and outcomes of the network.
+     * The table is shared by clones of the network since it does not change after parsing.
+     * @return The symbol table of the network.
+     */
+    public SymbolTable getSymbolTable() {
+        return symbolTable;
+    }
+
+    /**
+     * Retrieves the cache of compiled query plans.
+     * The cache is shared by clones of the network since plans only refer to nodes by id.
+     * @return The plan cache of the network.
+     */
+    public QueryPlanCache getPlanCache() {
+        return planCache;
+    }
+
+    /**
+     * Retrieves the cache of independence answers.
+     * The cache is shared by clones of the network since answers only refer to nodes by id.
+     * @return The independence cache of the network.
+     */
+    public IndependenceCache getIndependenceCache() {
+        return independenceCache;
+    }
+
+    /**
+     * Retrieves the cache of the nodes d-connected to a node given some evidence, which the independence
+     * queries sharing a node and evidence read their answers from. The cached sets must not be changed.
+     * The cache is shared by clones of the network since the sets only refer to nodes by id.
+     * @return The cache of Bayes Ball passes of the network.
+     */
+    public LruCache<BayesBall.Pass, BitSet> getPassCache() {
+        return passCache;
+    }
+
+    /**
+     * Retrieves the junction tree of the network, building it on first use.
+     * The tree only refers to nodes by id, so a clone keeps the tree built before it was cloned.
+     * @return The junction tree of the network.
+     */
+    public synchronized JunctionTree getJunctionTree() {
+        if (junctionTree == null) {
+            junctionTree = new JunctionTree(this, EliminationOrderHeuristic.DEFAULT);
+        }
+        return junctionTree;
+    }
+
+    /**
+     * Computes the indexes of the structure of the network, once all its nodes and edges are added.
+     */
+    public synchronized void indexStructure() {
+        graph = new NetworkGraph(this);
+        ancestry = new Ancestry(graph);
+    }
+
+    /**
+     * Retrieves the compact view of the parents and children of every node, building it if the structure was
+     * not indexed yet. It only refers to nodes by id, so a clone shares it.
+     * @return The graph of the network.
+     */
+    public synchronized NetworkGraph getGraph() {
+        if (graph == null) {
+            indexStructure();
+        }
+        return graph;
+    }
+
+    /**
+     * Retrieves the ancestor relation of the network, computing it if the structure was not indexed yet.
+     * It only refers to nodes by id, so a clone shares it.
+     * @return The ancestor relation of the network.
+     */
+    public synchronized Ancestry getAncestry() {
+        if (ancestry == null) {
+            indexStructure();
+        }
+        return ancestry;
+    }
+
     /**
      * Sets the parent nodes for a given node by their names.
      * @param node        The node to set parents for.
@@ -1,19 +1,22 @@
-import java.util.*;
+import java.util.Arrays;
 
 
 /**
  * Represents the Conditional Probability Table (CPT) for a node in a Bayesian Network.
- * The CPT maps combinations of variable states to their corresponding probabilities.
+ * The probabilities are kept in a flat array in the XMLBIF TABLE order: the node's parents in the order
+ * they were given, the first one varying slowest, followed by the node itself, which varies fastest.
  */
 public class CPT implements Cloneable {
-    private Map<List<String>, Double> probabilityTable;     // probabilityTable stores the conditional probabilities for various states
+    private double[] probabilityTable;      // probabilityTable stores the conditional probabilities in TABLE order
+    private int[] strides;                  // Distance in the table between consecutive states of each parent, then of the node
 
     /**
      * Constructs a CPT for the given node.
      * @param node The node for which this CPT is being created.
      */
     public CPT(Node node) {
-        this.probabilityTable = new HashMap<>();
+        this.probabilityTable = new double[0];
+        this.strides = new int[0];
     }
 
     /**
@@ -21,24 +24,53 @@ public class CPT implements Cloneable {
      * @param other The CPT to copy.
      */
     public CPT(CPT other) {
-        this.probabilityTable = new HashMap<>(other.probabilityTable);  // Deep copy if necessary
+        this.probabilityTable = other.probabilityTable;     // The table is never modified in place, so it is shared
+        this.strides = other.strides;
     }
 
     /**
-     * Sets the probability for a given combination of variable states.
-     * @param key The combination of variable states as a list of strings.
-     * @param value The probability associated with the combination of variable states.
+     * Sets the probabilities of the table and computes the strides of its variables.
+     * @param table         The probabilities in TABLE order.
+     * @param cardinalities The number of states of each parent, followed by the number of states of the node.
      */
-    public void setProbability(List<String> key, Double value) {
-        this.probabilityTable.put(new ArrayList<>(key), value);  // Ensure key is copied if mutable
+    public void setProbabilities(double[] table, int[] cardinalities) {
+        this.probabilityTable = table;
+        this.strides = new int[cardinalities.length];
+        int stride = 1;
+        for (int i = cardinalities.length - 1; i >= 0; i--) {
+            this.strides[i] = stride;
+            stride *= cardinalities[i];
+        }
+    }
+
+    /**
+     * Retrieves the probability of a combination of states.
+     * @param states The state index of each parent, followed by the state index of the node.
+     * @return       The probability associated with the combination of states.
+     */
+    public double getProbability(int[] states) {
+        int index = 0;
+        for (int i = 0; i < states.length; i++) {
+            index += states[i] * strides[i];
+        }
+        return probabilityTable[index];
     }
 
     /**
      * Retrieves the probability table.
-     * @return A copy of the probability table to prevent external modifications.
+     * The array is shared with the factors built from this CPT and must not be modified.
+     * @return The probabilities in TABLE order.
      */
-    public Map<List<String>, Double> getProbabilityTable() {
-        return new HashMap<>(this.probabilityTable);  // Return a copy to prevent external modifications
+    public double[] getProbabilityTable() {
+        return this.probabilityTable;
+    }
+
+    /**
+     * Retrieves the strides of the table.
+     * @return The stride of each parent, followed by the stride of the node.
+     */
+    public int[] getStrides() {
+        return this.strides.clone();
     }
 
     /**
@@ -48,7 +80,7 @@ public class CPT implements Cloneable {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("CPT{");
-        sb.append(", probabilityTable=").append(probabilityTable);
+        sb.append(", probabilityTable=").append(Arrays.toString(probabilityTable));
         sb.append('}');
         return sb.toString();
     }
@@ -60,14 +92,7 @@ public class CPT implements Cloneable {
     @Override
     public CPT clone() {
         try {
-            CPT clone = (CPT) super.clone();             // Create a shallow copy of this CPT object
-            clone.probabilityTable = new HashMap<>();    // Initialize a new probability table for the clone
-
-            // Deep copy each entry in the probability table
-            for (Map.Entry<List<String>, Double> entry : this.probabilityTable.entrySet()) {
-                clone.probabilityTable.put(new ArrayList<>(entry.getKey()), entry.getValue());
-            }
-            return clone;
+            return (CPT) super.clone();     // The table and strides are never modified in place, so they are shared
         } catch (CloneNotSupportedException e) {
             throw new AssertionError();
         }
@@ -0,0 +1,549 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.LongStream;
+
+
+/**
+ * Answers a query on a Bayesian Network by conditioning on a loop cutset, for networks too dense for any
+ * elimination order to fit in memory.
+ * The cutset is chosen on the graph of the CPTs the query needs, so that once its variables are observed the
+ * graph is a forest and eliminating it builds no table of more than two variables. Every combination of outcomes
+ * of the cutset is then a separate sub-problem, solved with the usual factor operations, and the sub-problems
+ * run in parallel. Their joint tables of the query and the evidence are summed and normalized.
+ * As in recursive conditioning, the table a bucket produces only depends on the cutset variables of the CPTs
+ * below it, so it is cached and shared by the sub-problems agreeing on those. The number of cached tables is
+ * bounded, which trades memory for time: with no cache every sub-problem is solved in full.
+ * The default bound is read at startup from -Dinference.conditioningCacheSize=tables.
+ */
+public class CutsetConditioning {
+
+    private static volatile int defaultCacheSize = Integer.getInteger("inference.conditioningCacheSize", 1 << 16);
+
+    private BayesianNetwork network;            // The network the query is on
+    private SymbolTable symbols;                // Interned variable names and outcomes of the network
+    private int query = -1;                     // The id of the query variable, or -1 if it was not found
+    private int queryOutcome = -1;              // The outcome index asked for
+    private Map<Integer, Integer> evidence;     // Observed outcome index of each evidence variable
+    private int[] cutset;                       // The ids of the conditioned variables
+    private List<Factor> cpts;                  // The CPTs the query needs, with the evidence applied
+    private List<int[]> bucketInputs;           // Slots each bucket joins: CPTs first, then the bucket results
+    private List<Integer> bucketVariables;      // The variable each bucket sums out
+    private List<Integer> remainingSlots;       // Slots joined into the final table
+    private List<int[]> bucketContexts;         // Positions in the cutset of the variables each bucket result holds
+    private List<AtomicReferenceArray<Factor>> caches;  // Cached results of each bucket by context, or null
+    private AtomicInteger cacheHits;            // Bucket results taken from the cache
+    private AtomicInteger cacheMisses;          // Bucket results computed and cached
+    private AtomicInteger cachedAdditions;      // Additions of the cached bucket results, each counted once
+    private AtomicInteger cachedMultiplications;    // Multiplications of the cached bucket results
+    private int additionCount;                  // Additions of the whole query
+    private int multiplicationCount;            // Multiplications of the whole query
+    private int peakTableSize;                  // Rows of the largest table any sub-problem created
+    private double[] posterior;                 // The probability of each outcome of the query
+
+    /**
+     * Answers a query with the default cache size.
+     *
+     * @param network  Bayesian network
+     * @param query    Query specifying the target node and outcome, in the format Node=Value
+     * @param evidence Array of evidence in the format Node=Value
+     */
+    public CutsetConditioning(BayesianNetwork network, String query, String[] evidence) {
+        this(network, query, evidence, defaultCacheSize);
+    }
+
+    /**
+     * Answers a query.
+     *
+     * @param network   Bayesian network
+     * @param query     Query specifying the target node and outcome, in the format Node=Value
+     * @param evidence  Array of evidence in the format Node=Value
+     * @param cacheSize The largest number of bucket results kept for the sub-problems to share
+     */
+    public CutsetConditioning(BayesianNetwork network, String query, String[] evidence, int cacheSize) {
+        this.network = network;
+        this.symbols = network.getSymbolTable();
+        this.evidence = new HashMap<>();
+        this.cutset = new int[0];
+        this.cacheHits = new AtomicInteger();
+        this.cacheMisses = new AtomicInteger();
+        this.cachedAdditions = new AtomicInteger();
+        this.cachedMultiplications = new AtomicInteger();
+
+        String[] parts = query.split("=");
+        Node queryNode = parts.length == 2 ? network.getNodeByName(parts[0].trim()) : null;
+        if (queryNode == null) {
+            System.err.println("Warning: Query node not found in the network - " + query);
+            this.posterior = new double[0];
+            return;
+        }
+        this.query = queryNode.getNodeId();
+        this.queryOutcome = symbols.getOutcomeIndex(this.query, parts[1].trim());
+        for (String evidenceItem : evidence) {
+            String[] evidenceParts = evidenceItem.split("=");
+            Node node = evidenceParts.length == 2 ? network.getNodeByName(evidenceParts[0].trim()) : null;
+            if (node != null) {
+                this.evidence.put(node.getNodeId(), symbols.getOutcomeIndex(node.getNodeId(), evidenceParts[1].trim()));
+            } else {
+                System.err.println("Warning: Incorrect evidence or node not found in the network - " + evidenceItem);
+            }
+        }
+
+        this.posterior = new double[symbols.getCardinality(this.query)];
+        Integer observed = this.evidence.get(this.query);
+        if (observed != null) {
+            if (observed >= 0) {
+                posterior[observed] = 1.0;
+            }
+            return;
+        }
+        collectFactors();
+        this.cutset = chooseCutset();
+        planBuckets(cacheSize);
+        run();
+    }
+
+    /**
+     * Retrieves the number of bucket results the conditioning engine caches unless told otherwise.
+     *
+     * @return The default cache size
+     */
+    public static int getDefaultCacheSize() {
+        return defaultCacheSize;
+    }
+
+    /**
+     * Replaces the number of bucket results the conditioning engine caches unless told otherwise.
+     *
+     * @param cacheSize The new default cache size, 0 for no caching
+     */
+    public static void setDefaultCacheSize(int cacheSize) {
+        defaultCacheSize = cacheSize;
+    }
+
+    /**
+     * Takes the CPTs of the nodes relevant to the query and applies the evidence to copies of them.
+     */
+    private void collectFactors() {
+        BitSet evidenceBits = new BitSet(symbols.size());
+        evidence.keySet().forEach(evidenceBits::set);
+        BitSet irrelevant = RelevancePruning.irrelevantNodes(network, query, evidenceBits);
+
+        int[] evidenceVariables = new int[evidence.size()];
+        int[] evidenceOutcomes = new int[evidence.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> entry : evidence.entrySet()) {
+            evidenceVariables[i] = entry.getKey();
+            evidenceOutcomes[i++] = entry.getValue();
+        }
+        this.cpts = new ArrayList<>();
+        for (int id = 0; id < symbols.size(); id++) {
+            if (!irrelevant.get(id)) {
+                Factor cpt = network.getNodeByName(symbols.getVariableName(id)).getFactor().clone();
+                cpt.filterRows(evidenceVariables, evidenceOutcomes);
+                cpts.add(cpt);
+            }
+        }
+    }
+
+    /**
+     * Retrieves the unobserved variables of a CPT.
+     *
+     * @param cpt The CPT
+     * @return The ids of its variables that are not evidence
+     */
+    private int[] unobservedVariables(Factor cpt) {
+        return Arrays.stream(cpt.getVariables()).filter(variable -> !evidence.containsKey(variable)).toArray();
+    }
+
+    /**
+     * Chooses a loop cutset of the graph of the CPTs, where two variables are adjacent when a CPT holds both.
+     * Variables with at most one neighbor are on no loop, and are peeled off until none is left; the variable
+     * with the most neighbors, other than the query, is then conditioned on, and the peeling starts again.
+     *
+     * @return The ids of the variables to condition on
+     */
+    private int[] chooseCutset() {
+        List<int[]> scopes = new ArrayList<>();
+        for (Factor cpt : cpts) {
+            scopes.add(unobservedVariables(cpt));
+        }
+        BitSet[] neighbors = new MoralGraph(symbols, scopes).copyNeighbors();
+        BitSet alive = new BitSet(symbols.size());
+        for (int[] scope : scopes) {
+            for (int variable : scope) {
+                alive.set(variable);
+            }
+        }
+
+        List<Integer> chosen = new ArrayList<>();
+        while (true) {
+            Deque<Integer> worklist = new ArrayDeque<>();
+            alive.stream().filter(variable -> degree(neighbors, alive, variable) <= 1).forEach(worklist::push);
+            while (!worklist.isEmpty()) {
+                int variable = worklist.pop();
+                if (alive.get(variable)) {
+                    alive.clear(variable);
+                    for (int v = neighbors[variable].nextSetBit(0); v >= 0; v = neighbors[variable].nextSetBit(v + 1)) {
+                        if (alive.get(v) && degree(neighbors, alive, v) <= 1) {
+                            worklist.push(v);
+                        }
+                    }
+                }
+            }
+            if (alive.isEmpty()) {
+                break;
+            }
+            int best = -1;
+            for (int v = alive.nextSetBit(0); v >= 0; v = alive.nextSetBit(v + 1)) {
+                if (v != query && (best < 0 || degree(neighbors, alive, v) > degree(neighbors, alive, best))) {
+                    best = v;
+                }
+            }
+            chosen.add(best);                   // Every loop has a variable other than the query
+            alive.clear(best);
+        }
+        return chosen.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Counts the neighbors of a variable that are still in the graph.
+     *
+     * @param neighbors The neighbors of every variable
+     * @param alive     The variables still in the graph
+     * @param variable  The id of the variable
+     * @return The number of its neighbors in the graph
+     */
+    private static int degree(BitSet[] neighbors, BitSet alive, int variable) {
+        BitSet adjacent = (BitSet) neighbors[variable].clone();
+        adjacent.and(alive);
+        return adjacent.cardinality();
+    }
+
+    /**
+     * Orders the variables left once the cutset is observed and decides which factors each bucket joins, which
+     * is the same for every sub-problem. The cutset variables below each bucket make up its context, and buckets
+     * are cached in elimination order while their contexts fit in the cache and are smaller than the number of
+     * sub-problems.
+     *
+     * @param cacheSize The largest number of bucket results to cache
+     */
+    private void planBuckets(int cacheSize) {
+        BitSet conditioned = new BitSet(symbols.size());
+        for (int variable : cutset) {
+            conditioned.set(variable);
+        }
+        List<BitSet> scopes = new ArrayList<>();                // Unobserved variables of each slot
+        List<BitSet> contexts = new ArrayList<>();              // Cutset variables below each slot
+        BitSet hidden = new BitSet(symbols.size());
+        for (Factor cpt : cpts) {
+            BitSet scope = new BitSet(symbols.size());
+            for (int variable : unobservedVariables(cpt)) {
+                scope.set(variable);
+            }
+            BitSet context = (BitSet) scope.clone();
+            context.and(conditioned);
+            scope.andNot(conditioned);
+            scopes.add(scope);
+            contexts.add(context);
+            hidden.or(scope);
+        }
+        hidden.clear(query);
+
+        List<int[]> reduced = new ArrayList<>();
+        for (BitSet scope : scopes) {
+            reduced.add(scope.stream().toArray());
+        }
+        int[] order = EliminationOrderHeuristic.MIN_DEGREE.order(new MoralGraph(symbols, reduced), hidden.stream().toArray());
+
+        this.bucketInputs = new ArrayList<>();
+        this.bucketVariables = new ArrayList<>();
+        this.bucketContexts = new ArrayList<>();
+        List<Integer> live = new ArrayList<>();
+        for (int slot = 0; slot < cpts.size(); slot++) {
+            live.add(slot);
+        }
+        for (int variable : order) {
+            List<Integer> inputs = new ArrayList<>();
+            BitSet scope = new BitSet(symbols.size());
+            BitSet context = new BitSet(symbols.size());
+            for (int slot : live) {
+                if (scopes.get(slot).get(variable)) {
+                    inputs.add(slot);
+                    scope.or(scopes.get(slot));
+                    context.or(contexts.get(slot));
+                }
+            }
+            if (inputs.isEmpty()) {
+                continue;
+            }
+            live.removeAll(inputs);
+            live.add(scopes.size());
+            scope.clear(variable);
+            scopes.add(scope);
+            contexts.add(context);
+            bucketInputs.add(inputs.stream().mapToInt(Integer::intValue).toArray());
+            bucketVariables.add(variable);
+            int[] positions = new int[context.cardinality()];
+            int k = 0;
+            for (int position = 0; position < cutset.length; position++) {
+                if (context.get(cutset[position])) {
+                    positions[k++] = position;
+                }
+            }
+            bucketContexts.add(positions);
+        }
+        this.remainingSlots = live;
+
+        long subProblems = contextSize(allPositions());
+        long cached = 0;
+        this.caches = new ArrayList<>();
+        for (int[] context : bucketContexts) {
+            long size = contextSize(context);
+            if (size < subProblems && cached + size <= cacheSize) {
+                caches.add(new AtomicReferenceArray<>((int) size));
+                cached += size;
+            } else {
+                caches.add(null);
+            }
+        }
+    }
+
+    /**
+     * Lists every position in the cutset.
+     *
+     * @return The positions 0 to the size of the cutset
+     */
+    private int[] allPositions() {
+        int[] positions = new int[cutset.length];
+        for (int position = 0; position < positions.length; position++) {
+            positions[position] = position;
+        }
+        return positions;
+    }
+
+    /**
+     * Counts the combinations of outcomes of some cutset variables.
+     *
+     * @param positions Their positions in the cutset
+     * @return The product of their cardinalities, capped at Long.MAX_VALUE
+     */
+    private long contextSize(int[] positions) {
+        long size = 1;
+        for (int position : positions) {
+            int cardinality = symbols.getCardinality(cutset[position]);
+            size = size > Long.MAX_VALUE / cardinality ? Long.MAX_VALUE : size * cardinality;
+        }
+        return size;
+    }
+
+    /**
+     * Solves the sub-problems in parallel and combines their joint tables of the query in the order of the
+     * sub-problems, so the answer does not depend on the scheduling. Summing each extra joint table costs one
+     * addition per outcome of the query, and normalizing the sum one fewer.
+     */
+    private void run() {
+        long subProblems = contextSize(allPositions());
+        SubProblem[] results = LongStream.range(0, subProblems).parallel()
+                .mapToObj(this::solve).toArray(SubProblem[]::new);
+
+        double[] totals = new double[posterior.length];
+        double sum = 0;
+        for (SubProblem result : results) {
+            for (int outcome = 0; outcome < totals.length; outcome++) {
+                totals[outcome] += result.joint[outcome];
+                sum += result.joint[outcome];
+            }
+            additionCount += result.additions;
+            multiplicationCount += result.multiplications;
+            peakTableSize = Math.max(peakTableSize, result.peakTableSize);
+        }
+        additionCount += (results.length - 1) * totals.length + totals.length - 1 + cachedAdditions.get();
+        multiplicationCount += cachedMultiplications.get();
+        for (int outcome = 0; outcome < totals.length && sum > 0; outcome++) {
+            posterior[outcome] = totals[outcome] / sum;
+        }
+    }
+
+    /**
+     * Solves the sub-problem of one combination of outcomes of the cutset.
+     *
+     * @param index The index of the combination, the last cutset variable changing fastest
+     * @return The joint table of the query and the evidence under the combination, and the work it took
+     */
+    private SubProblem solve(long index) {
+        int[] assignment = new int[cutset.length];
+        for (int position = cutset.length - 1; position >= 0; position--) {
+            int cardinality = symbols.getCardinality(cutset[position]);
+            assignment[position] = (int) (index % cardinality);
+            index /= cardinality;
+        }
+        Factor[] conditioned = new Factor[cpts.size()];
+        for (int slot = 0; slot < conditioned.length; slot++) {
+            Factor cpt = cpts.get(slot);
+            boolean holdsCutset = false;
+            for (int variable : cutset) {
+                holdsCutset |= cpt.involvesVariable(variable);
+            }
+            if (holdsCutset) {
+                cpt = cpt.clone();
+                cpt.filterRows(cutset, assignment);
+            }
+            conditioned[slot] = cpt;
+        }
+
+        InferenceContext context = new InferenceContext(symbols.size());
+        Factor product = null;
+        for (int slot : remainingSlots) {
+            Factor factor = evaluate(slot, conditioned, assignment, context);
+            product = product == null ? factor : Factor.joinFactors(context, product, factor);
+        }
+        double[] joint = new double[posterior.length];
+        for (int outcome = 0; outcome < joint.length; outcome++) {
+            joint[outcome] = product.getProbability(query, outcome);
+        }
+        return new SubProblem(joint, context.getAdditionCount(), context.getMultiplicationCount(), context.getPeakTableSize());
+    }
+
+    /**
+     * Retrieves the factor of a slot in a sub-problem, from the cache when its bucket is cached. A bucket result
+     * computed for the cache has its operations counted once, by the sub-problem that stores it.
+     *
+     * @param slot        The slot: a CPT, or a bucket numbered after the CPTs
+     * @param conditioned The CPTs with the outcomes of the cutset applied
+     * @param assignment  The outcome of each cutset variable
+     * @param context     The sub-problem's context, counting the work not cached
+     * @return The factor, which must not be changed
+     */
+    private Factor evaluate(int slot, Factor[] conditioned, int[] assignment, InferenceContext context) {
+        if (slot < conditioned.length) {
+            return conditioned[slot];
+        }
+        int bucket = slot - conditioned.length;
+        AtomicReferenceArray<Factor> cache = caches.get(bucket);
+        if (cache == null) {
+            return eliminate(bucket, conditioned, assignment, context);
+        }
+
+        int key = 0;
+        for (int position : bucketContexts.get(bucket)) {
+            key = key * symbols.getCardinality(cutset[position]) + assignment[position];
+        }
+        Factor result = cache.get(key);
+        if (result != null) {
+            cacheHits.incrementAndGet();
+            return result;
+        }
+        InferenceContext own = new InferenceContext(symbols.size());
+        result = eliminate(bucket, conditioned, assignment, own);
+        if (!cache.compareAndSet(key, null, result)) {
+            cacheHits.incrementAndGet();            // Another sub-problem stored it first
+            return cache.get(key);
+        }
+        cacheMisses.incrementAndGet();
+        cachedAdditions.addAndGet(own.getAdditionCount());
+        cachedMultiplications.addAndGet(own.getMultiplicationCount());
+        context.recordTableSize(own.getPeakTableSize());
+        return result;
+    }
+
+    /**
+     * Joins the factors of a bucket and sums its variable out of the product.
+     *
+     * @param bucket      The index of the bucket
+     * @param conditioned The CPTs with the outcomes of the cutset applied
+     * @param assignment  The outcome of each cutset variable
+     * @param context     The context counting the work
+     * @return A new factor without the bucket's variable
+     */
+    private Factor eliminate(int bucket, Factor[] conditioned, int[] assignment, InferenceContext context) {
+        int[] inputs = bucketInputs.get(bucket);
+        int variable = bucketVariables.get(bucket);
+        Factor product = evaluate(inputs[0], conditioned, assignment, context);
+        if (inputs.length == 1) {
+            Factor marginal = product.clone();
+            marginal.eliminateFactor(context, variable);
+            return marginal;
+        }
+        for (int i = 1; i < inputs.length - 1; i++) {
+            product = Factor.joinFactors(context, product, evaluate(inputs[i], conditioned, assignment, context));
+        }
+        return Factor.joinAndEliminate(context, product,
+                evaluate(inputs[inputs.length - 1], conditioned, assignment, context), variable);
+    }
+
+    /**
+     * Retrieves the names of the variables the query was conditioned on.
+     *
+     * @return The names of the cutset variables
+     */
+    public List<String> getCutset() {
+        List<String> names = new ArrayList<>();
+        for (int variable : cutset) {
+            names.add(symbols.getVariableName(variable));
+        }
+        return names;
+    }
+
+    /**
+     * Retrieves the number of bucket results the sub-problems took from the cache.
+     *
+     * @return The cache hits
+     */
+    public int getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * Retrieves the number of bucket results computed and stored in the cache.
+     *
+     * @return The cache misses
+     */
+    public int getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    /**
+     * Retrieves the size of the largest table any sub-problem created, which bounds the memory each needed.
+     *
+     * @return The number of rows of the peak intermediate table
+     */
+    public int getPeakTableSize() {
+        return peakTableSize;
+    }
+
+    /**
+     * Retrieves the answer to the query.
+     *
+     * @return String representation of the probability, and of the additions and multiplications of all
+     *         sub-problems and of combining them
+     */
+    public String getFinalAnswer() {
+        double probability = queryOutcome >= 0 ? posterior[queryOutcome] : 0;
+        return String.format("%.5f,%d,%d", probability, additionCount, multiplicationCount);
+    }
+
+    /**
+     * The outcome of one sub-problem.
+     */
+    private static final class SubProblem {
+        private final double[] joint;           // Joint probability of each outcome of the query and the evidence
+        private final int additions;            // Additions not taken from the cache
+        private final int multiplications;      // Multiplications not taken from the cache
+        private final int peakTableSize;        // Rows of its largest table
+
+        private SubProblem(double[] joint, int additions, int multiplications, int peakTableSize) {
+            this.joint = joint;
+            this.additions = additions;
+            this.multiplications = multiplications;
+            this.peakTableSize = peakTableSize;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Chooses the order in which variable elimination sums out the hidden variables.
+ * The cost of an order is set by the tables it creates, which the heuristics estimate on the graph
+ * of the factors: eliminating a variable ties all its neighbors together.
+ */
+public interface EliminationOrderHeuristic {
+    EliminationOrderHeuristic MIN_DEGREE = new GreedyEliminationOrder(GreedyEliminationOrder.Score.MIN_DEGREE);
+    EliminationOrderHeuristic MIN_FILL = new GreedyEliminationOrder(GreedyEliminationOrder.Score.MIN_FILL);
+    EliminationOrderHeuristic WEIGHTED_MIN_FILL = new GreedyEliminationOrder(GreedyEliminationOrder.Score.WEIGHTED_MIN_FILL);
+    EliminationOrderHeuristic RANDOMIZED = new RandomizedEliminationOrder(GreedyEliminationOrder.Score.WEIGHTED_MIN_FILL, 16, 1L);
+    EliminationOrderHeuristic DEFAULT = MIN_FILL;       // Used when a query gives no order
+
+    /**
+     * Orders variables for elimination.
+     * @param graph     The graph of the factors the variables appear in
+     * @param variables The ids of the variables to eliminate
+     * @return The same ids in elimination order
+     */
+    int[] order(MoralGraph graph, int[] variables);
+
+    /**
+     * Finds a heuristic by the name a query line may give instead of an elimination order.
+     * The heuristics are shared instances, so they can key cached query plans.
+     * @param name One of min-degree, min-fill, weighted-min-fill or randomized
+     * @return The heuristic, or null if the name is not one of them
+     */
+    static EliminationOrderHeuristic forName(String name) {
+        switch (name) {
+            case "min-degree":
+                return MIN_DEGREE;
+            case "min-fill":
+                return MIN_FILL;
+            case "weighted-min-fill":
+                return WEIGHTED_MIN_FILL;
+            case "randomized":
+                return RANDOMIZED;
+            default:
+                return null;
+        }
+    }
+}
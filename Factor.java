@@ -3,51 +3,240 @@ import java.util.*;
 
 /**
  * Represents a factor in a probabilistic model, used for variable elimination and probability calculations.
+ * The table is addressed through an ordered list of variable ids, their cardinalities and strides, in
+ * row-major order where the last variable varies fastest. It is stored either densely, as a flat array of
+ * every row, or sparsely, as the sorted indices and values of its non-zero rows when few rows are non-zero.
+ * With -Dfactor.storage=dense every table is kept dense, as a reference for the sparse operations.
+ * Evidence is applied to a dense table by slicing it: the observed outcome's rows are reached by moving the
+ * table's start, while the strides keep pointing into the shared array. The slice is copied into a contiguous
+ * table only when an operation has to walk the table in order.
+ * A table is never written in place once the factor is built, so factors may share it with a CPT or a clone.
  */
 public class Factor implements Comparable<Factor>, Cloneable {
-    private static int lastAssignedId = 0;              // Static variable to track the last assigned ID
+    private SymbolTable symbols;                        // Translates variable ids and outcome indices back to names
     private String factorLabel;                         // Stores the label describing the factor
-    private Map<String, Double> probabilityTable;       // Table mapping variable states to probabilities
+    private int[] variables;                            // Ordered ids of the variables involved in this factor
+    private int[][] outcomes;                           // Outcome indices of each variable (a single one once it is observed)
+    private int[] cardinalities;                        // Number of outcomes of each variable
+    private int[] strides;                              // Distance in the table between consecutive outcomes of each variable
+    private double[] values;                            // Flat probability table indexed by the strides above
+    private int offset;                                 // Position of the table's first row in the values (non-zero for slices)
+    private int[] rows;                                 // Sorted row indices of the values when sparse, or null when dense
     private int factorId;                               // Unique ID for this factor instance
-    private static int multiplicationCount = 0;         // Tracks the number of multiplications performed
-    private static int additionCount = 0;               // Tracks the number of additions performed
-    private Set<String> variables;                      // Set of variables involved in this factor
+    private static final double SPARSE_DENSITY = 0.5;   // Tables with at most this share of non-zero rows are kept sparse
+    private static volatile boolean sparseStorage = !"dense".equals(System.getProperty("factor.storage"));  // false keeps every table dense
 
     /**
-     * Constructs a Factor with a given probability table and a list of variables.
-     * @param CptTable Conditional probability table as a map
-     * @param variables List of variable names involved in the factor
+     * Constructs a Factor over the given variables from a dense probability table.
+     * The table is kept sparse instead if few of its rows are non-zero.
+     * @param symbols   The symbol table of the network the variables belong to
+     * @param factorId  Unique id of the factor, shown in its label
+     * @param variables Ordered ids of the variables involved in the factor
+     * @param outcomes  Outcome indices of each variable, in the same order as the variables
+     * @param values    Probabilities in row-major order, the last variable varying fastest
      */
-    public Factor(Map<String, Double> CptTable, List<String> variables) {
-        this.probabilityTable = new HashMap<>(CptTable);
-        this.variables = new HashSet<>(variables);      // Initialize variables set
-        this.factorId = ++lastAssignedId;               // Increment and assign unique identifier
-        this.factorLabel = generateLabel(variables);
+    public Factor(SymbolTable symbols, int factorId, int[] variables, int[][] outcomes, double[] values) {
+        this(symbols, factorId, variables, outcomes, null, values);
+    }
+
+    /**
+     * Constructs a Factor over the given variables from a dense or a sparse probability table.
+     * @param symbols   The symbol table of the network the variables belong to
+     * @param factorId  Unique id of the factor, shown in its label
+     * @param variables Ordered ids of the variables involved in the factor
+     * @param outcomes  Outcome indices of each variable, in the same order as the variables
+     * @param rows      Sorted row indices of the values for a sparse table, or null for a dense one
+     * @param values    Probabilities of the given rows, or of every row in row-major order when dense
+     */
+    private Factor(SymbolTable symbols, int factorId, int[] variables, int[][] outcomes, int[] rows, double[] values) {
+        this.symbols = symbols;
+        this.variables = variables;
+        this.outcomes = outcomes;
+        this.rows = rows;
+        this.values = values;
+        this.factorId = factorId;
+        this.factorLabel = generateLabel(this.variables);
+        computeStrides();
+        chooseStorage();
+    }
+
+    /**
+     * Lays the table out contiguously: recomputes the cardinalities and strides from the current outcomes,
+     * starting at the beginning of the values.
+     */
+    private void computeStrides() {
+        this.offset = 0;
+        this.cardinalities = new int[this.variables.length];
+        for (int i = 0; i < this.variables.length; i++) {
+            this.cardinalities[i] = this.outcomes[i].length;
+        }
+        this.strides = stridesOf(this.outcomes);
+    }
+
+    /**
+     * Computes the row-major strides of a table over variables with the given outcomes.
+     * @param outcomes The outcome indices of each variable
+     * @return The stride of each variable, the last one being 1
+     */
+    private static int[] stridesOf(int[][] outcomes) {
+        int[] strides = new int[outcomes.length];
+        int stride = 1;
+        for (int i = outcomes.length - 1; i >= 0; i--) {
+            strides[i] = stride;
+            stride *= outcomes[i].length;
+        }
+        return strides;
+    }
+
+    /**
+     * Switches the table between dense and sparse storage depending on how many of its rows are non-zero.
+     */
+    private void chooseStorage() {
+        int size = getTableSize();
+        if (rows == null) {
+            if (!sparseStorage) {
+                return;
+            }
+            int nonZero = 0;
+            for (int row = 0; row < size; row++) {
+                if (values[row] != 0) {
+                    nonZero++;
+                }
+            }
+            if (size == 0 || nonZero > size * SPARSE_DENSITY) {
+                return;
+            }
 
-        // Debug print to show the variables being initialized
+            // Keep only the non-zero rows
+            int[] sparseRows = new int[nonZero];
+            double[] sparseValues = new double[nonZero];
+            int k = 0;
+            for (int row = 0; row < size; row++) {
+                if (values[row] != 0) {
+                    sparseRows[k] = row;
+                    sparseValues[k++] = values[row];
+                }
+            }
+            this.rows = sparseRows;
+            this.values = sparseValues;
+        } else if (rows.length > size * SPARSE_DENSITY) {
+
+            // Too many non-zero rows for the sparse storage to pay off, so expand the table
+            double[] denseValues = new double[size];
+            for (int k = 0; k < rows.length; k++) {
+                denseValues[rows[k]] = values[k];
+            }
+            this.rows = null;
+            this.values = denseValues;
+        }
+    }
+
+    /**
+     * Checks whether tables with few non-zero rows are stored sparsely.
+     * The default is read at startup from -Dfactor.storage; only "dense" turns the sparse storage off.
+     * @return true if new tables may be stored sparsely, false if every new table is dense
+     */
+    public static boolean isSparseStorage() {
+        return sparseStorage;
+    }
+
+    /**
+     * Turns the sparse storage of new tables on or off. Tables built before keep their storage.
+     * @param sparse true to store tables with few non-zero rows sparsely, false to store every new table densely
+     */
+    public static void setSparseStorage(boolean sparse) {
+        sparseStorage = sparse;
     }
 
     /**
-     * Another constructor that initializes the factor with a specified label.
-     * @param initialTable The probability table to be assigned
-     * @param label A custom label for the factor
+     * Retrieves the probability stored at a position of the table, whether it is stored densely or sparsely.
+     * @param index The position in the values (including the offset of a slice), or the row of a sparse table
+     * @return The probability at that position
      */
-    public Factor(Map<String, Double> initialTable, String label) {
-        this.probabilityTable = new HashMap<>(initialTable);
-        this.factorId = lastAssignedId++;
-        this.factorLabel = label;
+    private double valueAt(int index) {
+        if (rows == null) {
+            return values[index];
+        }
+        int k = Arrays.binarySearch(rows, index);
+        return k < 0 ? 0.0 : values[k];
+    }
+
+    /**
+     * Finds where a row of the table is stored, following the strides of a slice.
+     * @param row The row index in row-major order
+     * @return The position to pass to valueAt
+     */
+    private int storageIndex(int row) {
+        int index = offset;
+        for (int i = variables.length - 1; i >= 0; i--) {
+            index += (row % cardinalities[i]) * strides[i];
+            row /= cardinalities[i];
+        }
+        return index;
+    }
+
+    /**
+     * Copies a sliced dense table into a contiguous one, for the operations that walk the table in order.
+     * @param context The query the operation belongs to
+     */
+    private void materialize(InferenceContext context) {
+        if (rows != null || (offset == 0 && Arrays.equals(strides, stridesOf(outcomes)))) {
+            return;
+        }
+        double[] contiguous = new double[getTableSize()];
+
+        // Walk the slice in row order, advancing the outcome of the last variable like an odometer
+        int[] digits = context.digits(variables.length);
+        int index = offset;
+        for (int row = 0; row < contiguous.length; row++) {
+            contiguous[row] = values[index];
+            for (int i = variables.length - 1; i >= 0; i--) {
+                if (++digits[i] < cardinalities[i]) {
+                    index += strides[i];
+                    break;
+                }
+                digits[i] = 0;
+                index -= (cardinalities[i] - 1) * strides[i];
+            }
+        }
+        this.values = contiguous;
+        computeStrides();
+        chooseStorage();
+    }
+
+    /**
+     * Checks whether the table is stored sparsely.
+     * @return true if only the non-zero rows are stored, false if every row is
+     */
+    public boolean isSparse() {
+        return rows != null;
+    }
+
+    /**
+     * Finds the position of a variable in the factor's ordered variables.
+     * @param variable The id of the variable
+     * @return The position of the variable, or -1 if it is not part of the factor
+     */
+    private int positionOf(int variable) {
+        for (int i = 0; i < variables.length; i++) {
+            if (variables[i] == variable) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     /**
      * Generates a descriptive label for the factor based on its variables.
-     * @param dependencies List of variable names that define the factor's scope
+     * @param dependencies Ids of the variables that define the factor's scope
      * @return A formatted string representing the label of the factor
      */
-    private String generateLabel(List<String> dependencies) {
-        if (dependencies.isEmpty()) {
-            return "f" + this.factorId + "()";
+    private String generateLabel(int[] dependencies) {
+        StringJoiner names = new StringJoiner(", ", "f" + this.factorId + "(", ")");
+        for (int variable : dependencies) {
+            names.add(symbols.getVariableName(variable));
         }
-        return "f" + this.factorId + "(" + String.join(", ", dependencies) + ")";
+        return names.toString();
     }
 
     /**
@@ -55,7 +244,7 @@ public class Factor implements Comparable<Factor>, Cloneable {
      * @return The label of the factor
      */
     public String getFactorLabel() {
-        return "f" + getFactorId() + factorLabel;
+        return factorLabel;
     }
 
     /**
@@ -63,52 +252,128 @@ public class Factor implements Comparable<Factor>, Cloneable {
      * @return The number of entries in the probability table
      */
     public int getTableSize() {
-        return probabilityTable.size();
+        int size = 1;
+        for (int cardinality : cardinalities) {
+            size *= cardinality;
+        }
+        return size;
     }
 
     /**
      * Filters rows in the probability table based on the given evidence.
-     * @param evidences Map of evidence variables and their observed values
-     */
-    public void filterRows(Map<String, String> evidences) {
-        Iterator<Map.Entry<String, Double>> it = probabilityTable.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<String, Double> entry = it.next();
-            boolean match = true;
-            for (String condition : entry.getKey().split(",")) {
-                String[] parts = condition.split("=");
-                if (evidences.containsKey(parts[0]) && !evidences.get(parts[0]).equals(parts[1])) {
-                    match = false;
-                    break;
+     * An observed variable stays in the factor with its observed outcome as the only one.
+     * A dense table is sliced without copying any row; a sparse one keeps its matching stored rows.
+     * @param evidenceVariables Ids of the evidence variables
+     * @param evidenceOutcomes  Observed outcome index of each evidence variable, or -1 if the outcome is unknown
+     */
+    public void filterRows(int[] evidenceVariables, int[] evidenceOutcomes) {
+        for (int j = 0; j < evidenceVariables.length; j++) {
+            int i = positionOf(evidenceVariables[j]);
+            if (i < 0) {
+                continue;
+            }
+            int observed = evidenceOutcomes[j];
+            int outcomeIndex = indexOf(outcomes[i], observed);
+            this.outcomes = this.outcomes.clone();
+            this.outcomes[i] = outcomeIndex < 0 ? new int[0] : new int[]{observed};
+
+            if (rows != null) {
+
+                // Keep the stored rows where the variable takes its observed outcome, renumbered without it
+                int block = strides[i] * cardinalities[i];
+                int[] newRows = new int[rows.length];
+                double[] newValues = new double[rows.length];
+                int k = 0;
+                for (int s = 0; s < rows.length; s++) {
+                    if ((rows[s] / strides[i]) % cardinalities[i] == outcomeIndex) {
+                        newRows[k] = rows[s] / block * strides[i] + rows[s] % strides[i];
+                        newValues[k++] = values[s];
+                    }
                 }
+                this.rows = Arrays.copyOf(newRows, k);
+                this.values = Arrays.copyOf(newValues, k);
+                computeStrides();
+                chooseStorage();
+            } else {
+
+                // Move the start of the table to the observed outcome and keep the strides of the other variables
+                this.offset += Math.max(outcomeIndex, 0) * strides[i];
+                this.cardinalities = this.cardinalities.clone();
+                this.cardinalities[i] = this.outcomes[i].length;
             }
-            if (!match) {
-                it.remove();
+        }
+    }
+
+    /**
+     * Finds an outcome index among the outcomes a variable can take.
+     * @param outcomes The outcome indices of the variable
+     * @param outcome The outcome index to find
+     * @return The position of the outcome, or -1 if the variable cannot take it
+     */
+    private static int indexOf(int[] outcomes, int outcome) {
+        for (int d = 0; d < outcomes.length; d++) {
+            if (outcomes[d] == outcome) {
+                return d;
             }
         }
+        return -1;
     }
 
     /**
      * Retrieves a copy of the probability table.
-     * @return A new map containing the same entries as the original probability table
+     * @return A new map from "Variable1=Value1,Variable2=Value2,..." keys to their probabilities
      */
     public Map<String, Double> getProbabilityTable() {
-        return new HashMap<>(this.probabilityTable);
+        Map<String, Double> table = new HashMap<>();
+        for (int index = 0; index < getTableSize(); index++) {
+            table.put(rowKey(index), valueAt(storageIndex(index)));
+        }
+        return table;
+    }
+
+    /**
+     * Builds the "Variable1=Value1,Variable2=Value2,..." key describing a row of the table.
+     * @param index The row index in row-major order
+     * @return The key of the row
+     */
+    private String rowKey(int index) {
+        String key = "";
+        for (int i = variables.length - 1; i >= 0; i--) {
+            int outcome = outcomes[i][index % cardinalities[i]];
+            index /= cardinalities[i];
+            String pair = symbols.getVariableName(variables[i]) + "=" + symbols.getOutcomeName(variables[i], outcome);
+            key = key.isEmpty() ? pair : pair + "," + key;
+        }
+        return key;
     }
 
     /**
      * Retrieves the probability associated with a specific variable outcome.
-     * @param variable The variable of interest
-     * @param outcome The specific outcome to query
+     * @param variable The id of the variable of interest
+     * @param outcome The index of the specific outcome to query
      * @return The probability of the outcome, or 0 if not found
      */
-    public double getProbability(String variable, String outcome) {
-        for (Map.Entry<String, Double> entry : this.probabilityTable.entrySet()) {
-            if (entry.getKey().contains(variable + "=" + outcome)) {
-                return entry.getValue();
-            }
+    public double getProbability(int variable, int outcome) {
+        int position = positionOf(variable);
+        if (position < 0) {
+            return 0;
+        }
+        int outcomeIndex = indexOf(outcomes[position], outcome);
+        if (outcomeIndex < 0) {
+            return 0; // Return 0 if no matching outcome is found
         }
-        return 0; // Return 0 if no matching outcome is found
+        return valueAt(offset + outcomeIndex * strides[position]);
+    }
+
+    /**
+     * Retrieves the outcomes a variable can still take in this factor.
+     * The returned array is shared and must not be modified.
+     * @param variable The id of the variable of interest
+     * @return The outcome indices of the variable, or an empty array if it is not part of the factor
+     */
+    public int[] getOutcomes(int variable) {
+        int position = positionOf(variable);
+        return position < 0 ? new int[0] : outcomes[position];
     }
 
     /**
@@ -131,13 +396,22 @@ public class Factor implements Comparable<Factor>, Cloneable {
     }
 
     /**
-     * Sums the ASCII values of the keys in the probability table to use in sorting.
+     * Sums the ASCII values of the row keys ("Variable1=Value1,...") of the table to use in sorting.
+     * Every row spells out each variable name once, and each outcome of a variable appears in the same
+     * number of rows, so the sum is computed per variable instead of per row.
      * @return The sum of ASCII values
      */
     private int sumASCII() {
-        int asciiSum = 0;
-        for (String key : this.probabilityTable.keySet()) {
-            asciiSum += key.chars().sum();  // Using streams to sum ASCII values
+        int rows = getTableSize();
+        if (rows == 0 || variables.length == 0) {
+            return 0;
+        }
+        int asciiSum = (variables.length - 1) * ',' * rows;
+        for (int i = 0; i < variables.length; i++) {
+            asciiSum += (symbols.getVariableName(variables[i]).chars().sum() + '=') * rows;
+            for (int outcome : outcomes[i]) {
+                asciiSum += symbols.getOutcomeName(variables[i], outcome).chars().sum() * (rows / cardinalities[i]);
+            }
         }
         return asciiSum;
     }
@@ -152,325 +426,489 @@ public class Factor implements Comparable<Factor>, Cloneable {
 
     /**
      * Static method to join two factors into a new factor, combining their variables and probabilities.
+     * @param context The query the join belongs to
      * @param factorA The first factor to join
      * @param factorB The second factor to join
-     * @param evidenceVariables Set of variable names that are observed as evidence
      * @return A new factor resulting from the join operation
      */
-    public static Factor joinFactors(Factor factorA, Factor factorB, Set<String> evidenceVariables) {
-        int mults = 0;
-        int adds = 0;
-        Map<String, Double> newTable = new HashMap<>();
-        Set<String> combinedVariables = new HashSet<>(factorA.getVariables());
-        combinedVariables.addAll(factorB.getVariables());
-
-        // Generate a new label for the joined factor
-        String newLabel = "f" + (++lastAssignedId) + "(" + String.join(", ", combinedVariables) + ")";
-
-        // Loop through every entry in both factor tables and multiply where keys match
-        for (Map.Entry<String, Double> entryA : factorA.probabilityTable.entrySet()) {
-            for (Map.Entry<String, Double> entryB : factorB.probabilityTable.entrySet()) {
-
-                // Determine by isCompatible() if two entries (from factorA and factorB) are compatible—that is,
-                // whether they can be merged based on the values assigned to their common variables.
-                if (isCompatible(entryA.getKey(), entryB.getKey())) {
-                    String newKey = mergeKeys(entryA.getKey(), entryB.getKey());
-                    double newProbability = entryA.getValue() * entryB.getValue();
-                    newTable.put(newKey, newProbability);
-                    multiplicationCount++;
-                    mults++;
-
-                }
-            }
+    public static Factor joinFactors(InferenceContext context, Factor factorA, Factor factorB) {
+        Factor newFactor = multiply(context, factorA, factorB, -1);
+        if (Trace.isEnabled(Trace.Level.DEBUG)) {
+            Trace.event(Trace.Level.DEBUG, Trace.Event.FACTOR_CREATED, newFactor.factorLabel, newFactor.getTableSize());
         }
+        return newFactor;
+    }
 
-        // List of variables to remove from the combined set after determining unique outcomes
-        ArrayList<String> combinedVariablesList = new ArrayList<String>(combinedVariables);
-        ArrayList<String> toRemove = new ArrayList<>();
-        for(String unionVarName : combinedVariablesList){
-            HashSet<String> res = new HashSet<String>();
-            for(String varsRow : newTable.keySet()){
-                String[] varsIsolateWithREs =  varsRow.split(",");
-                for(String var_outcome : varsIsolateWithREs){
-                    String[] splitted = var_outcome.split("=");
-                    String varName = splitted[0];
-                    String outcoume = splitted[1];
-                    if(unionVarName.equals(varName)){
-                        res.add(outcoume);
-                    }
-                }
+    /**
+     * Static method to join two factors and sum a variable out of the product in a single pass.
+     * The result is the same as joinFactors followed by eliminateFactor, and the same operations are
+     * counted, but the products are accumulated straight into the smaller eliminated table.
+     * @param context The query the join belongs to
+     * @param factorA The first factor to join
+     * @param factorB The second factor to join
+     * @param variable The id of the variable to eliminate from the product
+     * @return A new factor resulting from the join and the elimination
+     */
+    public static Factor joinAndEliminate(InferenceContext context, Factor factorA, Factor factorB, int variable) {
+        int prevAdd = context.getAdditionCount();
+        Factor newFactor = multiply(context, factorA, factorB, variable);
+        if (Trace.isEnabled(Trace.Level.DEBUG)) {
+            Trace.event(Trace.Level.DEBUG, Trace.Event.FACTOR_CREATED, newFactor.factorLabel, newFactor.getTableSize());
+            Trace.event(Trace.Level.DEBUG, Trace.Event.VARIABLE_ELIMINATED, newFactor.symbols.getVariableName(variable),
+                    context.getAdditionCount() - prevAdd);
+        }
+        return newFactor;
+    }
 
+    /**
+     * Multiplies two factors, optionally summing a variable out of the product.
+     * Dense tables are multiplied by walking the product's rows once in order while the matching rows of both
+     * inputs and of the result are tracked with stride arithmetic. When a table is sparse, only its non-zero
+     * rows are walked, and zero rows of the other table are skipped. Either way the operations are counted as
+     * if every row of the product was computed, so the counts do not depend on the storage.
+     * @param context The query the product belongs to, which counts its operations and gives its id
+     * @param factorA The first factor to multiply
+     * @param factorB The second factor to multiply
+     * @param eliminated The id of the variable to sum out of the product, or -1 to keep the full product
+     * @return A new factor holding the (possibly eliminated) product
+     */
+    private static Factor multiply(InferenceContext context, Factor factorA, Factor factorB, int eliminated) {
+
+        // The product holds the variables of factorA followed by the new variables of factorB
+        int[] combinedVariables = Arrays.copyOf(factorA.variables, factorA.variables.length + factorB.variables.length);
+        int count = factorA.variables.length;
+        for (int variable : factorB.variables) {
+            if (factorA.positionOf(variable) < 0) {
+                combinedVariables[count++] = variable;
+            }
+        }
+        combinedVariables = Arrays.copyOf(combinedVariables, count);
+
+        // For every product variable, the offset of each of its outcomes in the tables of factorA and factorB
+        int size = 1;
+        int[][] combinedOutcomes = new int[count][];
+        int[][] offsetsA = new int[count][];
+        int[][] offsetsB = new int[count][];
+        int kept = 0;
+        for (int r = 0; r < count; r++) {
+            int positionA = factorA.positionOf(combinedVariables[r]);
+            int positionB = factorB.positionOf(combinedVariables[r]);
+            int[] outcomesA = positionA < 0 ? null : factorA.outcomes[positionA];
+            int[] outcomesB = positionB < 0 ? null : factorB.outcomes[positionB];
+
+            // A common variable keeps the outcomes both factors agree on (they differ only once one side is observed)
+            int[] joined = outcomesA == null ? outcomesB : outcomesA;
+            if (outcomesA != null && outcomesB != null && !Arrays.equals(outcomesA, outcomesB)) {
+                joined = Arrays.stream(outcomesA).filter(outcome -> indexOf(outcomesB, outcome) >= 0).toArray();
             }
-            // Remove variable from the combined set if it has only one unique outcome
-            if(res.size() == 1){
-                combinedVariables.remove(unionVarName);
-                toRemove.add(unionVarName);
+            combinedOutcomes[r] = joined;
+            offsetsA[r] = outcomeOffsets(joined, outcomesA, positionA < 0 ? 0 : factorA.strides[positionA]);
+            offsetsB[r] = outcomeOffsets(joined, outcomesB, positionB < 0 ? 0 : factorB.strides[positionB]);
+            size *= joined.length;
+
+            // Variables left with a single outcome carry no information, so they are dropped from the result
+            // together with the eliminated variable
+            if (joined.length != 1 && combinedVariables[r] != eliminated) {
+                kept++;
             }
         }
 
-        // Remove terms from the keys in the new probability table based on the variables to remove
-        newTable = removeTermsFromKeys((HashMap<String, Double>) newTable, toRemove);
+        int[] keptVariables = new int[kept];
+        int[][] keptOutcomes = new int[kept][];
+        int keptSize = 1;
+        kept = 0;
+        for (int r = 0; r < count; r++) {
+            if (combinedOutcomes[r].length != 1 && combinedVariables[r] != eliminated) {
+                keptVariables[kept] = combinedVariables[r];
+                keptOutcomes[kept++] = combinedOutcomes[r];
+                keptSize *= combinedOutcomes[r].length;
+            }
+        }
+        int[] keptStrides = stridesOf(keptOutcomes);
+        int[][] offsetsNew = new int[count][];
+        for (int r = 0; r < count; r++) {
+            int position = -1;
+            for (int i = 0; i < kept; i++) {
+                if (keptVariables[i] == combinedVariables[r]) {
+                    position = i;
+                }
+            }
+            offsetsNew[r] = outcomeOffsets(combinedOutcomes[r], position < 0 ? null : combinedOutcomes[r],
+                    position < 0 ? 0 : keptStrides[position]);
+        }
 
-        // Create a new factor with the updated probability table and variables
-        Factor newFactor = new Factor(newTable, new ArrayList<>(combinedVariables));
-        System.out.println("New Factor Created: " + newFactor);
-        return newFactor;
-    }
+        context.addMultiplications(size);
+        context.addAdditions(size == 0 ? 0 : size - keptSize);   // Every product row summed into an existing one is an addition
+        context.recordTableSize(keptSize);
 
-    /**
-     * Removes specified terms from the keys of the probability table.
-     * @param originalMap The original probability table
-     * @param termsToRemove List of terms to remove from the keys
-     * @return Updated probability table with terms removed from keys
-     */
-    public static HashMap<String, Double> removeTermsFromKeys(HashMap<String, Double> originalMap, ArrayList<String> termsToRemove) {
-        HashMap<String, Double> updatedMap = new HashMap<>();
+        if (factorA.rows != null || factorB.rows != null) {
+            boolean outerIsA = factorA.rows != null;
+            SparseTable product = multiplySparse(context, outerIsA ? factorA : factorB, outerIsA ? factorB : factorA,
+                    combinedVariables, combinedOutcomes, outerIsA ? offsetsB : offsetsA, offsetsNew);
+            product.sortAndMerge();
+            return new Factor(factorA.symbols, context.nextFactorId(), keptVariables, keptOutcomes, product.rows, product.values);
+        }
+        double[] newTable = new double[keptSize];
+        if (size == 0) {
+            return new Factor(factorA.symbols, context.nextFactorId(), keptVariables, keptOutcomes, newTable);
+        }
 
-        // Iterate over each entry in the original probability table
-        for (Map.Entry<String, Double> entry : originalMap.entrySet()) {
-            String key = entry.getKey();
-            Double value = entry.getValue();
+        // The outcomes of the last variable are handed to the kernels as one run when they are evenly spaced
+        // in all three tables, which is the case unless a domain was narrowed by evidence
+        int outer = count;
+        int length = 1;
+        int stepA = 0;
+        int stepB = 0;
+        int stepNew = 0;
+        if (FactorKernels.enabled && count > 0
+                && isEvenlySpaced(offsetsA[count - 1]) && isEvenlySpaced(offsetsB[count - 1]) && isEvenlySpaced(offsetsNew[count - 1])) {
+            outer = count - 1;
+            length = combinedOutcomes[outer].length;
+            if (length > 1) {
+                stepA = offsetsA[outer][1] - offsetsA[outer][0];
+                stepB = offsetsB[outer][1] - offsetsB[outer][0];
+                stepNew = offsetsNew[outer][1] - offsetsNew[outer][0];
+            }
+        }
 
-            // Find and remove the specified terms and their values (e.g., "B2=F" or "C3=H")
-            String[] parts = key.split(",");
-            StringBuilder newKey = new StringBuilder();
-            for (String part : parts) {
-                boolean keepPart = true;
-                for (String term : termsToRemove) {
-                    if (part.startsWith(term + "=")) {
-                        keepPart = false;
-                        break;
-                    }
-                }
-                if (keepPart) {
-                    if (newKey.length() > 0) {
-                        newKey.append(",");
-                    }
-                    newKey.append(part);
+        // Walk the product in row order, advancing the outcome of the remaining variables like an odometer
+        int[] digits = context.digits(count);
+        int indexA = factorA.offset;
+        int indexB = factorB.offset;
+        int indexNew = 0;
+        for (int r = 0; r < count; r++) {
+            indexA += offsetsA[r][0];
+            indexB += offsetsB[r][0];
+            indexNew += offsetsNew[r][0];
+        }
+        for (int index = 0; index < size; index += length) {
+            FactorKernels.multiplyAdd(factorA.values, indexA, stepA, factorB.values, indexB, stepB,
+                    newTable, indexNew, stepNew, length);
+            for (int r = outer - 1; r >= 0; r--) {
+                int digit = digits[r];
+                if (digit + 1 < combinedOutcomes[r].length) {
+                    digits[r] = digit + 1;
+                    indexA += offsetsA[r][digit + 1] - offsetsA[r][digit];
+                    indexB += offsetsB[r][digit + 1] - offsetsB[r][digit];
+                    indexNew += offsetsNew[r][digit + 1] - offsetsNew[r][digit];
+                    break;
                 }
+                digits[r] = 0;
+                indexA -= offsetsA[r][digit] - offsetsA[r][0];
+                indexB -= offsetsB[r][digit] - offsetsB[r][0];
+                indexNew -= offsetsNew[r][digit] - offsetsNew[r][0];
             }
-
-            // Combine values for the same new key
-            String newKeyStr = newKey.toString();
-            updatedMap.put(newKeyStr, updatedMap.getOrDefault(newKeyStr, 0.0) + value);
         }
-        return updatedMap;
+        return new Factor(factorA.symbols, context.nextFactorId(), keptVariables, keptOutcomes, newTable);
     }
 
     /**
-     * Checks if two keys from different factors are compatible based on their variable assignments.
-     * @param keyA Key from the first factor
-     * @param keyB Key from the second factor
-     * @return true if the keys are compatible, false otherwise
+     * Multiplies a sparse factor with another factor by walking only the non-zero rows of the sparse one.
+     * For every stored row of the outer factor, the product rows it takes part in differ only in the
+     * variables the outer factor does not have, so those are enumerated like an odometer.
+     * @param context The query the product belongs to
+     * @param outer The sparse factor whose stored rows are walked
+     * @param inner The other factor, dense or sparse
+     * @param combinedVariables The ids of the product variables
+     * @param combinedOutcomes The outcome indices of each product variable
+     * @param offsetsInner The offset of each outcome of each product variable in the inner table
+     * @param offsetsNew The offset of each outcome of each product variable in the result table
+     * @return The non-zero rows of the result, not necessarily sorted
      */
-    private static boolean isCompatible(String keyA, String keyB) {
-        String[] pairsA = keyA.split(",");     // Split the keyA string by commas to separate into variable=value pairs
-        String[] pairsB = keyB.split(",");     // As below
-        Map<String, String> mapA = new HashMap<>();
-        Map<String, String> mapB = new HashMap<>();
-
-        // Iterate over each pair in keyA to populate mapA
-        for (String pair : pairsA) {
-            String[] splitPair = pair.split("=");               // Split each pair into variable and value
-            mapA.put(splitPair[0], splitPair[1]);                     // Put the variable and value into mapA
+    private static SparseTable multiplySparse(InferenceContext context, Factor outer, Factor inner, int[] combinedVariables,
+                                              int[][] combinedOutcomes, int[][] offsetsInner, int[][] offsetsNew) {
+        // Where every variable of the outer factor sits in the product, and which product outcome each of its outcomes is
+        int[] productPosition = new int[outer.variables.length];
+        int[][] productOutcome = new int[outer.variables.length][];
+        boolean[] fromOuter = new boolean[combinedVariables.length];
+        for (int i = 0; i < outer.variables.length; i++) {
+            for (int r = 0; r < combinedVariables.length; r++) {
+                if (combinedVariables[r] == outer.variables[i]) {
+                    productPosition[i] = r;
+                    fromOuter[r] = true;
+                }
+            }
+            productOutcome[i] = new int[outer.cardinalities[i]];
+            for (int d = 0; d < outer.cardinalities[i]; d++) {
+                productOutcome[i][d] = indexOf(combinedOutcomes[productPosition[i]], outer.outcomes[i][d]);
+            }
         }
-        try {
-            // Iterate over each pair in keyB to populate mapB
-            for (String pair : pairsB) {
-                String[] splitPair = pair.split("=");               // Split each pair into variable and value
-                mapB.put(splitPair[0], splitPair[1]);                     // Put the variable and value into mapB
+        int[] innerOnly = new int[combinedVariables.length - outer.variables.length];
+        int n = 0;
+        for (int r = 0; r < combinedVariables.length; r++) {
+            if (!fromOuter[r]) {
+                innerOnly[n++] = r;
             }
-        }catch (Exception e){
-            int i = 0;
         }
 
-        // Iterate through each variable in mapA's keySet
-        for (String var : mapA.keySet()) {
-            // Check if mapB also has the variable and their values are not equal
-            if (mapB.containsKey(var) && !mapA.get(var).equals(mapB.get(var))) {
-                // If a variable is in both maps but their values differ, return false
-                return false;
+        SparseTable product = new SparseTable(new int[Math.max(outer.rows.length, 1)], new double[Math.max(outer.rows.length, 1)], 0);
+        int[] digits = context.digits(innerOnly.length);
+        for (int k = 0; k < outer.rows.length; k++) {
+            if (outer.values[k] == 0) {
+                continue;
             }
-        }
 
-        // If no different variable values are found, return true
-        return true;
+            // Locate the stored row in the inner and result tables through the variables it assigns
+            int indexInner = inner.offset;
+            int indexNew = 0;
+            boolean inProduct = true;
+            for (int i = 0; i < outer.variables.length && inProduct; i++) {
+                int digit = productOutcome[i][(outer.rows[k] / outer.strides[i]) % outer.cardinalities[i]];
+                if (digit < 0) {
+                    inProduct = false;
+                } else {
+                    indexInner += offsetsInner[productPosition[i]][digit];
+                    indexNew += offsetsNew[productPosition[i]][digit];
+                }
+            }
+
+            // Enumerate the outcomes of the variables only the inner factor has
+            while (inProduct) {
+                double innerValue = inner.valueAt(indexInner);
+                if (innerValue != 0) {
+                    product.add(indexNew, outer.values[k] * innerValue);
+                }
+                inProduct = false;
+                for (int j = innerOnly.length - 1; j >= 0 && !inProduct; j--) {
+                    int r = innerOnly[j];
+                    int digit = digits[j];
+                    if (digit + 1 < combinedOutcomes[r].length) {
+                        digits[j] = digit + 1;
+                        indexInner += offsetsInner[r][digit + 1] - offsetsInner[r][digit];
+                        indexNew += offsetsNew[r][digit + 1] - offsetsNew[r][digit];
+                        inProduct = true;
+                    } else {
+                        digits[j] = 0;
+                        indexInner -= offsetsInner[r][digit] - offsetsInner[r][0];
+                        indexNew -= offsetsNew[r][digit] - offsetsNew[r][0];
+                    }
+                }
+            }
+        }
+        return product;
     }
 
     /**
-     * Merges keys from two compatible factors into a single key for the joined factor.
-     * @param keyA Key from the first factor
-     * @param keyB Key from the second factor
-     * @return A merged key combining variable assignments from both keys
+     * Growable list of (row, value) pairs used to build sparse tables.
      */
-    private static String mergeKeys(String keyA, String keyB) {
-        Map<String, String> combined = new HashMap<>();   // HashMap to maintain the order of insertion
-        String[] pairsA = keyA.split(",");
-        String[] pairsB = keyB.split(",");
-
-        // Iterate over each pair from keyA
-        for (String pair : pairsA) {
-            String[] parts = pair.split("=");
-            combined.put(parts[0], parts[1]);
+    private static class SparseTable {
+        private int[] rows;             // Row indices of the entries
+        private double[] values;        // Values of the entries
+        private int size;               // Number of entries in use
+
+        /**
+         * Wraps the first entries of the given arrays.
+         * @param rows Row indices of the entries
+         * @param values Values of the entries
+         * @param size Number of entries in use
+         */
+        private SparseTable(int[] rows, double[] values, int size) {
+            this.rows = rows;
+            this.values = values;
+            this.size = size;
         }
 
-        // Iterate over each pair from keyB
-        for (String pair : pairsB) {
-            String[] parts = pair.split("=");
-            combined.putIfAbsent(parts[0], parts[1]);
+        /**
+         * Appends an entry, growing the arrays when they are full.
+         * @param row The row index of the entry
+         * @param value The value of the entry
+         */
+        private void add(int row, double value) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            rows[size] = row;
+            values[size++] = value;
         }
 
-        // Convert the combined map back to a string
-        StringBuilder result = new StringBuilder();
-
-        // Iterate over each entry in the combined map
-        for (Map.Entry<String, String> entry : combined.entrySet()) {
-            if (result.length() > 0) {                  // If not the first entry, append a comma to separate pairs
-                result.append(",");
+        /**
+         * Sorts the entries by row and sums the entries of the same row, in the order they were added.
+         * Afterwards the arrays hold exactly the resulting entries.
+         */
+        private void sortAndMerge() {
+            boolean sorted = true;
+            for (int k = 1; k < size && sorted; k++) {
+                sorted = rows[k - 1] < rows[k];
+            }
+            if (sorted) {
+                rows = Arrays.copyOf(rows, size);
+                values = Arrays.copyOf(values, size);
+                return;
             }
 
-            // Append the variable=value pair to the result string
-            result.append(entry.getKey()).append("=").append(entry.getValue());
+            // Sort the positions by row; the position in the low bits keeps equal rows in insertion order
+            long[] keys = new long[size];
+            for (int k = 0; k < size; k++) {
+                keys[k] = ((long) rows[k] << 32) | k;
+            }
+            Arrays.sort(keys);
+            int[] mergedRows = new int[size];
+            double[] mergedValues = new double[size];
+            int merged = -1;
+            for (long key : keys) {
+                int row = (int) (key >>> 32);
+                double value = values[(int) key];
+                if (merged >= 0 && mergedRows[merged] == row) {
+                    mergedValues[merged] += value;
+                } else {
+                    mergedRows[++merged] = row;
+                    mergedValues[merged] = value;
+                }
+            }
+            rows = Arrays.copyOf(mergedRows, merged + 1);
+            values = Arrays.copyOf(mergedValues, merged + 1);
+            size = merged + 1;
         }
-
-        return result.toString();           // Convert the StringBuilder to a String and return it
     }
 
     /**
-     * Determines whether a specified variable is part of any entry in the probabilityTable.
-     * This table is assumed to contain keys that are strings formatted as combinations of variable-value pairs
-     * (like "Variable1=Value1,Variable2=Value2,...").
-     * @param variable The variable name to check within the factor.
-     * @return true if the variable is involved in the factor, false otherwise.
+     * Computes where each outcome of a product variable is found in the table of one of the multiplied factors.
+     * @param joined The outcome indices of the variable in the product
+     * @param own The outcome indices of the variable in the input factor, or null if the factor does not have it
+     * @param stride The stride of the variable in the input factor
+     * @return The table offset of every product outcome in the input factor
      */
-    public boolean involvesVariable(String variable) {
-        for (String key : probabilityTable.keySet()) {
-            if (key.contains(variable + "=")) {
-                return true;
-            }
+    private static int[] outcomeOffsets(int[] joined, int[] own, int stride) {
+        int[] offsets = new int[joined.length];
+        if (own == null) {
+            return offsets;
+        }
+        for (int d = 0; d < joined.length; d++) {
+            offsets[d] = (joined == own ? d : indexOf(own, joined[d])) * stride;
         }
-        return false;
+        return offsets;
     }
 
     /**
-     * Eliminates a specified variable from the factor, summing over its states.
-     * @param variable The variable to eliminate
+     * Checks whether consecutive outcomes sit at the same distance from each other in a table.
+     * @param offsets The offset of each outcome in the table
+     * @return true if the offsets form an arithmetic progression
      */
-    public void eliminateFactor(String variable) {
-        int initSize =  this.probabilityTable.size();
-        int prevAdd = additionCount;
-        Map<String, Double> newTable = new HashMap<>();    // Initialize a new HashMap to store the updated probability table after process
-        Map<String, Double> sums = new HashMap<>();        // Initialize a HashMap to store sums of probabilities for each unique combination of remaining variables.
-
-
-        // Iterate over each entry in the current probability table
-        for (Map.Entry<String, Double> entry : this.probabilityTable.entrySet()) {
-            String newKey = removeVariableFromKey(entry.getKey(), variable);            // Remove the specified variable from the key to create a new key for the reduced factor
-            double existingProb = sums.getOrDefault(newKey, 0.0);            // Retrieve the current probability sum for this new key, defaulting to 0.0 if it does not exist
-            sums.put(newKey, existingProb + entry.getValue());                          // Update the sum for this new key by adding the current entry's probability
-            newTable.put(newKey, sums.get(newKey));                                     // Update or set the probability for this new key in the new probability table
+    private static boolean isEvenlySpaced(int[] offsets) {
+        for (int d = 2; d < offsets.length; d++) {
+            if (offsets[d] - offsets[d - 1] != offsets[1] - offsets[0]) {
+                return false;
+            }
         }
-
-        // Increment the addition count by the number of unique entries processed (i.e., the size of sums)
-        additionCount += (initSize - sums.size());
-
-        // Replace the old probability table with the new table after elimination
-        this.probabilityTable = newTable;
-
-        // Update the factor label by removing the eliminated variable from the label
-        this.factorLabel = this.factorLabel.replace("," + variable, "").replace(variable + ",", "");
-        System.out.println("adds after elimination " + variable+ ": " + (additionCount - prevAdd));
+        return true;
     }
 
     /**
-     * Retrieves the count of multiplication operations performed.
-     * @return The total count of multiplication operations since the last reset.
+     * Determines whether a specified variable is part of the factor.
+     * @param variable The id of the variable to check within the factor.
+     * @return true if the variable is involved in the factor, false otherwise.
      */
-    public static int getMultiplicationCount() {
-        return multiplicationCount;
+    public boolean involvesVariable(int variable) {
+        return getTableSize() > 0 && positionOf(variable) >= 0;
     }
 
     /**
-     * Retrieves the count of addition operations performed.
-     * @return The total count of addition operations since the last reset.
+     * Eliminates a specified variable from the factor, summing over its states.
+     * @param context The query the elimination belongs to
+     * @param variable The id of the variable to eliminate
      */
-    public static int getAdditionCount() {
-        return additionCount;
+    public void eliminateFactor(InferenceContext context, int variable) {
+        int prevAdd = context.getAdditionCount();
+        int position = positionOf(variable);
+
+        if (position >= 0) {
+            materialize(context);
+            int size = getTableSize();
+            int stride = strides[position];
+            int block = stride * cardinalities[position];
+
+            if (rows != null) {
+
+                // Move every stored row to the row it is summed into, then merge the rows that meet
+                int[] newRows = new int[rows.length];
+                for (int k = 0; k < rows.length; k++) {
+                    newRows[k] = rows[k] / block * stride + rows[k] % stride;
+                }
+                SparseTable merged = new SparseTable(newRows, values, rows.length);
+                merged.sortAndMerge();
+                this.rows = merged.rows;
+                this.values = merged.values;
+            } else {
+                // Sum the rows that differ only in the outcome of the eliminated variable
+                this.values = FactorKernels.sumOut(values, size, stride, cardinalities[position]);
+            }
+
+            // Replace the old probability table with the new table after elimination
+            this.variables = withoutPosition(this.variables, position);
+            this.outcomes = withoutPosition(this.outcomes, position);
+            computeStrides();
+            chooseStorage();
+
+            // Increment the addition count by the number of rows merged into existing ones
+            context.addAdditions(size - getTableSize());
+
+            // Update the factor label by removing the eliminated variable from the label
+            this.factorLabel = generateLabel(this.variables);
+        }
+        if (Trace.isEnabled(Trace.Level.DEBUG)) {
+            Trace.event(Trace.Level.DEBUG, Trace.Event.VARIABLE_ELIMINATED, symbols.getVariableName(variable),
+                    context.getAdditionCount() - prevAdd);
+        }
     }
 
     /**
-     * Resets the static counters for multiplications and additions to zero.
+     * Copies an array without the element at a given position.
+     * @param array The array to copy
+     * @param position The position to leave out
+     * @return A new array one element shorter
      */
-    public static void resetCounts() {
-        multiplicationCount = 0;
-        additionCount = 0;
+    private static int[] withoutPosition(int[] array, int position) {
+        int[] copy = new int[array.length - 1];
+        System.arraycopy(array, 0, copy, 0, position);
+        System.arraycopy(array, position + 1, copy, position, copy.length - position);
+        return copy;
     }
 
     /**
-     * Removes a specified variable from a key string.
-     * @param key The key string from which to remove the variable
-     * @param variable The variable to remove
-     * @return A new key string with the variable removed
+     * Copies an array without the element at a given position.
+     * @param array The array to copy
+     * @param position The position to leave out
+     * @return A new array one element shorter
      */
-    private static String removeVariableFromKey(String key, String variable) {
-        String[] pairs = key.split(",");        // Split the key into pairs
-        StringBuilder newKey = new StringBuilder();
-
-        // Iterate over each pair in the key
-        for (String pair : pairs) {
-            // If the pair does not start with the specified variable, add it to the new key
-            if (!pair.startsWith(variable + "=")) {
-                if (newKey.length() > 0) {
-                    newKey.append(",");     // Add a comma if the new key is not empty
-                }
-                newKey.append(pair);        // Append the pair to the new key
-            }
-        }
-
-        // Return the new key as a string
-        return newKey.toString();
+    private static int[][] withoutPosition(int[][] array, int position) {
+        int[][] copy = new int[array.length - 1][];
+        System.arraycopy(array, 0, copy, 0, position);
+        System.arraycopy(array, position + 1, copy, position, copy.length - position);
+        return copy;
     }
 
     /**
      * Normalizes the probabilities in the probability table so that they sum to 1.
+     * @param context The query the normalization belongs to
      */
-    public void normalize() {
-        int prevAdd = Factor.additionCount;     // Store the previous addition count (for debug)
-        double sum = 0.0;
+    public void normalize(InferenceContext context) {
+        int prevAdd = context.getAdditionCount();     // Store the previous addition count (for debug)
+        materialize(context);
+        int stored = rows == null ? getTableSize() : rows.length;
 
-        // Calculate the sum of all probabilities in the table
-        for (double value : probabilityTable.values()) {
-            sum += value;
-        }
+        // Calculate the sum of all probabilities in the table (rows that are not stored are zero)
+        double sum = FactorKernels.sum(values, stored);
 
         // Avoid division by zero in case all probabilities are zero
         if (sum == 0) return;
 
-        // Divide each probability by the sum to normalize them
-        for (Map.Entry<String, Double> entry : probabilityTable.entrySet()) {
-            probabilityTable.put(entry.getKey(), entry.getValue() / sum);
-        }
+        // Divide each probability by the sum to normalize them, into a new table since this one may be shared
+        this.values = FactorKernels.divide(values, stored, sum);
 
         // If the probability table has more than one entry, update the addition count
-        if (probabilityTable.size() > 1) {
-            additionCount += probabilityTable.size() - 1;   // Count additions needed to sum up probabilities
-            System.out.println("adds normalized: " + (additionCount - prevAdd));
+        if (getTableSize() > 1) {
+            context.addAdditions(getTableSize() - 1);   // Count additions needed to sum up probabilities
+            Trace.event(Trace.Level.DEBUG, Trace.Event.FACTOR_NORMALIZED, factorLabel, context.getAdditionCount() - prevAdd);
         }
     }
 
     /**
-     * Retrieves a set of variables from the factor label.
-     * @return A set containing the variable names
+     * Retrieves the variables involved in the factor.
+     * @return The ids of the variables, in the order of the factor's table
      */
-    public Set<String> getVariables() {
-        Set<String> variables = new HashSet<>();
-        if (factorLabel.contains("(") && factorLabel.contains(")")) {
-            String varsPart = factorLabel.substring(factorLabel.indexOf('(') + 1, factorLabel.indexOf(')'));
-            if (!varsPart.isEmpty()) {
-                variables.addAll(Arrays.asList(varsPart.split(", ")));
-            }
-        }
-        return variables;
+    public int[] getVariables() {
+        return variables.clone();
     }
 
     /**
@@ -481,23 +919,25 @@ public class Factor implements Comparable<Factor>, Cloneable {
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append(this.getFactorLabel()).append(":\n");
-        for (Map.Entry<String, Double> entry : this.probabilityTable.entrySet()) {
-            sb.append(entry.getKey()).append(" = ").append(entry.getValue()).append("\n");
+        for (int index = 0; index < getTableSize(); index++) {
+            sb.append(rowKey(index)).append(" = ").append(valueAt(storageIndex(index))).append("\n");
         }
         return sb.toString();
     }
 
     /**
      * Creates a clone of the Factor.
-     * This method ensures a deep copy of the probability table and variables set.
+     * The probability table is shared, since no operation writes into a table in place.
      * @return A cloned instance of the Factor.
      */
     @Override
     public Factor clone() {
         try {
             Factor clone = (Factor) super.clone();
-            clone.probabilityTable = new HashMap<>(this.probabilityTable);    // Create a deep copy of the probability table
-            clone.variables = new HashSet<>(this.variables);                  // Create a deep copy of the variables set
+            clone.variables = this.variables.clone();                   // Create a deep copy of the variables
+            clone.outcomes = this.outcomes.clone();                     // Outcome arrays are never modified in place
+            clone.cardinalities = this.cardinalities.clone();
+            clone.strides = this.strides.clone();
             return clone;
         } catch (CloneNotSupportedException e) {
             return null;
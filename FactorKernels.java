@@ -0,0 +1,118 @@
+/**
+ * The inner loops of the dense factor operations.
+ * Every kernel walks a run of evenly spaced entries in a plain scalar loop, with the common unit-stride cases
+ * spelled out so the JIT compiler may turn them into SIMD instructions; no explicit vector API is used. The order
+ * of the floating point operations is the one of the row-by-row walk, so results do not depend on which kernel ran.
+ * With -Dfactor.kernels=scalar the join and the sum-out walk one row at a time instead, as a reference for
+ * benchmarks. Summing and dividing a table are a single loop either way. The mode may be switched while queries
+ * run, and the worker threads of parallel branches see the switch from their next operation.
+ */
+final class FactorKernels {
+    static volatile boolean enabled = !"scalar".equals(System.getProperty("factor.kernels"));  // false walks every row alone
+
+    private FactorKernels() {
+    }
+
+    /**
+     * Multiplies two runs of entries and adds the products into a run of the result.
+     * A step of zero repeats the same entry along the run (a variable the table does not have).
+     * @param a       The table of the first factor
+     * @param indexA  The position of the run in the first table
+     * @param stepA   The distance between consecutive entries of the run in the first table
+     * @param b       The table of the second factor
+     * @param indexB  The position of the run in the second table
+     * @param stepB   The distance between consecutive entries of the run in the second table
+     * @param out     The result table
+     * @param indexOut The position of the run in the result table
+     * @param stepOut The distance between consecutive entries of the run in the result table
+     * @param length  The number of entries in the run
+     */
+    static void multiplyAdd(double[] a, int indexA, int stepA, double[] b, int indexB, int stepB,
+                            double[] out, int indexOut, int stepOut, int length) {
+        if (stepOut == 1 && stepA == 1 && stepB == 0) {
+            double value = b[indexB];
+            for (int j = 0; j < length; j++) {
+                out[indexOut + j] += a[indexA + j] * value;
+            }
+        } else if (stepOut == 1 && stepA == 0 && stepB == 1) {
+            double value = a[indexA];
+            for (int j = 0; j < length; j++) {
+                out[indexOut + j] += value * b[indexB + j];
+            }
+        } else if (stepOut == 1 && stepA == 1 && stepB == 1) {
+            for (int j = 0; j < length; j++) {
+                out[indexOut + j] += a[indexA + j] * b[indexB + j];
+            }
+        } else {
+            for (int j = 0; j < length; j++) {
+                out[indexOut + j * stepOut] += a[indexA + j * stepA] * b[indexB + j * stepB];
+            }
+        }
+    }
+
+    /**
+     * Sums out a variable from a contiguous table.
+     * Each outcome of the variable adds a whole run of stride entries at once into the result, unless the runs
+     * would be shorter than the number of outcomes; then each result entry sums its outcomes in one go.
+     * @param table       The table, laid out in row-major order
+     * @param size        The number of rows of the table
+     * @param stride      The stride of the variable summed out
+     * @param cardinality The number of outcomes of the variable summed out
+     * @return A new table without the variable
+     */
+    static double[] sumOut(double[] table, int size, int stride, int cardinality) {
+        double[] result = new double[size / cardinality];
+        int block = stride * cardinality;
+        int k = 0;
+        if (!enabled || stride < cardinality) {
+            for (int outer = 0; outer < size; outer += block) {
+                for (int inner = 0; inner < stride; inner++) {
+                    for (int outcome = 0; outcome < cardinality; outcome++) {
+                        result[k] += table[outer + outcome * stride + inner];
+                    }
+                    k++;
+                }
+            }
+            return result;
+        }
+        for (int outer = 0; outer < size; outer += block) {
+            for (int outcome = 0; outcome < cardinality; outcome++) {
+                int start = outer + outcome * stride;
+                for (int inner = 0; inner < stride; inner++) {
+                    result[k + inner] += table[start + inner];
+                }
+            }
+            k += stride;
+        }
+        return result;
+    }
+
+    /**
+     * Sums the first entries of a table.
+     * @param table  The table
+     * @param length The number of entries to sum
+     * @return The sum, accumulated in table order
+     */
+    static double sum(double[] table, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            sum += table[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Divides the first entries of a table by a common divisor.
+     * @param table   The table, which is left unchanged
+     * @param length  The number of entries to divide
+     * @param divisor The divisor
+     * @return A new table holding the quotients
+     */
+    static double[] divide(double[] table, int length, double divisor) {
+        double[] result = new double[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = table[i] / divisor;
+        }
+        return result;
+    }
+}
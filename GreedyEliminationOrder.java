@@ -0,0 +1,95 @@
+import java.util.BitSet;
+import java.util.Random;
+
+
+/**
+ * Builds an elimination order one variable at a time, always taking the variable whose elimination
+ * scores lowest in the graph left by the previous ones.
+ */
+public class GreedyEliminationOrder implements EliminationOrderHeuristic {
+
+    /**
+     * What a greedy step minimizes.
+     */
+    public enum Score {
+        MIN_DEGREE,             // The number of neighbors of the variable
+        MIN_FILL,               // The number of edges its elimination adds between its neighbors
+        WEIGHTED_MIN_FILL       // The same edges, each weighted by the product of its ends' cardinalities
+    }
+
+    private Score score;        // What each step minimizes
+    private Random random;      // Breaks ties between equally scored variables, or null to take the lowest id
+
+    /**
+     * Constructs a deterministic greedy heuristic.
+     * @param score What each step minimizes
+     */
+    public GreedyEliminationOrder(Score score) {
+        this(score, null);
+    }
+
+    /**
+     * Constructs a greedy heuristic that breaks ties at random.
+     * @param score  What each step minimizes
+     * @param random The source of the tie breaks, or null to take the lowest id
+     */
+    public GreedyEliminationOrder(Score score, Random random) {
+        this.score = score;
+        this.random = random;
+    }
+
+    @Override
+    public int[] order(MoralGraph graph, int[] variables) {
+        BitSet[] adjacency = graph.copyNeighbors();
+        BitSet remaining = new BitSet(graph.size());
+        for (int variable : variables) {
+            remaining.set(variable);
+        }
+
+        int[] order = new int[remaining.cardinality()];
+        for (int step = 0; step < order.length; step++) {
+            int best = -1;
+            long bestScore = Long.MAX_VALUE;
+            int ties = 0;
+            for (int v = remaining.nextSetBit(0); v >= 0; v = remaining.nextSetBit(v + 1)) {
+                long s = score(graph, adjacency, v);
+                if (s < bestScore) {
+                    best = v;
+                    bestScore = s;
+                    ties = 1;
+                } else if (s == bestScore && random != null && random.nextInt(++ties) == 0) {
+                    best = v;   // Every variable of the tie is equally likely to be taken
+                }
+            }
+            order[step] = best;
+            remaining.clear(best);
+            MoralGraph.eliminate(adjacency, best);
+        }
+        return order;
+    }
+
+    /**
+     * Scores the elimination of a variable in the current graph.
+     * @param graph     The graph, for the cardinalities
+     * @param adjacency The current neighbors of every variable
+     * @param variable  The id of the variable
+     * @return The score, lower being better
+     */
+    private long score(MoralGraph graph, BitSet[] adjacency, int variable) {
+        BitSet adjacent = adjacency[variable];
+        if (score == Score.MIN_DEGREE) {
+            return adjacent.cardinality();
+        }
+
+        // Count the pairs of neighbors that are not adjacent yet
+        long fill = 0;
+        for (int u = adjacent.nextSetBit(0); u >= 0; u = adjacent.nextSetBit(u + 1)) {
+            for (int v = adjacent.nextSetBit(u + 1); v >= 0; v = adjacent.nextSetBit(v + 1)) {
+                if (!adjacency[u].get(v)) {
+                    fill += score == Score.MIN_FILL ? 1 : (long) graph.getCardinality(u) * graph.getCardinality(v);
+                }
+            }
+        }
+        return fill;
+    }
+}
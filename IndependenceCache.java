@@ -0,0 +1,39 @@
+import java.util.BitSet;
+
+
+/**
+ * A least recently used cache of the answers to independence queries on a network.
+ * Answers are keyed by the two nodes, smaller id first since independence is symmetric, and the ids of the
+ * evidence nodes, so repeats that list the pair or the evidence in another order, or with other observed
+ * outcomes, share one entry.
+ */
+public class IndependenceCache extends LruCache<IndependenceCache.Key, Boolean> {
+
+    /**
+     * An independence query. Build it with {@link #of}, which puts the pair in order.
+     * @param nodeA    The smaller id of the pair
+     * @param nodeB    The larger id of the pair
+     * @param evidence The ids of the evidence nodes, not changed once the key is built
+     */
+    public record Key(int nodeA, int nodeB, BitSet evidence) {
+
+        /**
+         * Builds the key of a query.
+         * @param nodeA    The id of one node of the pair
+         * @param nodeB    The id of the other node
+         * @param evidence The ids of the evidence nodes, copied
+         * @return A key comparing equal for the same pair and evidence in any order
+         */
+        public static Key of(int nodeA, int nodeB, BitSet evidence) {
+            return new Key(Math.min(nodeA, nodeB), Math.max(nodeA, nodeB), (BitSet) evidence.clone());
+        }
+    }
+
+    /**
+     * Constructs an empty cache.
+     * @param capacity The number of answers kept; the least recently used one is dropped beyond it
+     */
+    public IndependenceCache(int capacity) {
+        super(capacity);
+    }
+}
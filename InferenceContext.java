@@ -0,0 +1,144 @@
+import java.util.Arrays;
+
+
+/**
+ * Holds the state of a single inference query: its operation counts, the ids of the factors it creates
+ * and scratch space for the factor operations.
+ * Every query runs with a context of its own, so queries on the same network can run at the same time.
+ * A context itself must only be used by one thread; a query whose parts run on several threads gives each part
+ * a fork of its context, and merges the counts of the forks back once the parts are done. Factor ids take part
+ * in the order factors are joined, so a part running out of order moves its fork to the ids it would take in
+ * order, which keeps the query's answer and counts independent of the scheduling.
+ */
+public class InferenceContext {
+    private int lastAssignedId;                 // The last id given to a factor created by this context
+    private int multiplicationCount;            // Number of multiplications performed by this query
+    private int additionCount;                  // Number of additions performed by this query
+    private int peakTableSize;                  // Rows of the largest table this query created
+    private int[] digits;                       // Reusable odometer digits of the factor walks
+
+    /**
+     * Constructs a context whose factors get ids after the given one.
+     * @param lastAssignedId The last id already taken, e.g. by the factors of the network's CPTs
+     */
+    public InferenceContext(int lastAssignedId) {
+        this.lastAssignedId = lastAssignedId;
+        this.digits = new int[0];
+    }
+
+    /**
+     * Creates a context for a part of this query that runs on another thread. Its factors get ids after the
+     * last one taken here, unless it is moved with seekFactorIds, and its operations are counted apart until
+     * they are merged back.
+     * @return A new context with zero counts
+     */
+    public InferenceContext fork() {
+        return new InferenceContext(lastAssignedId);
+    }
+
+    /**
+     * Adds the operations and the peak table size of a fork whose thread is done with it.
+     * @param fork The fork
+     */
+    public void merge(InferenceContext fork) {
+        multiplicationCount += fork.multiplicationCount;
+        additionCount += fork.additionCount;
+        peakTableSize = Math.max(peakTableSize, fork.peakTableSize);
+    }
+
+    /**
+     * Takes the next factor id.
+     * @return A new id, unique within the query and the network
+     */
+    public int nextFactorId() {
+        return ++lastAssignedId;
+    }
+
+    /**
+     * Retrieves the last factor id taken.
+     * @return The id of the last factor created, or the id the context started after
+     */
+    public int getLastFactorId() {
+        return lastAssignedId;
+    }
+
+    /**
+     * Moves the context to other factor ids, so that the next factor gets the id after the given one.
+     * @param lastAssignedId The id to continue after
+     */
+    public void seekFactorIds(int lastAssignedId) {
+        this.lastAssignedId = lastAssignedId;
+    }
+
+    /**
+     * Records multiplications performed by a factor operation.
+     * @param count The number of multiplications
+     */
+    public void addMultiplications(int count) {
+        multiplicationCount += count;
+    }
+
+    /**
+     * Records additions performed by a factor operation.
+     * @param count The number of additions
+     */
+    public void addAdditions(int count) {
+        additionCount += count;
+    }
+
+    /**
+     * Records the size of a table created by a factor operation.
+     * @param size The number of rows of the table
+     */
+    public void recordTableSize(int size) {
+        peakTableSize = Math.max(peakTableSize, size);
+    }
+
+    /**
+     * Retrieves the size of the largest table created so far.
+     * @return The number of rows of the peak intermediate table
+     */
+    public int getPeakTableSize() {
+        return peakTableSize;
+    }
+
+    /**
+     * Retrieves the number of multiplications performed so far.
+     * @return The multiplication count
+     */
+    public int getMultiplicationCount() {
+        return multiplicationCount;
+    }
+
+    /**
+     * Retrieves the number of additions performed so far.
+     * @return The addition count
+     */
+    public int getAdditionCount() {
+        return additionCount;
+    }
+
+    /**
+     * Resets the multiplication and addition counts and the peak table size to zero.
+     */
+    public void resetCounts() {
+        multiplicationCount = 0;
+        additionCount = 0;
+        peakTableSize = 0;
+    }
+
+    /**
+     * Lends zeroed odometer digits to a factor walk. The array is reused by the next walk, so a walk
+     * must not keep it or call another walk while it uses it.
+     * @param length The number of digits needed
+     * @return An array of at least that many digits, the first length of them zero
+     */
+    int[] digits(int length) {
+        if (digits.length < length) {
+            digits = new int[Math.max(length, 2 * digits.length)];
+        } else {
+            Arrays.fill(digits, 0, length, 0);
+        }
+        return digits;
+    }
+}
@@ -0,0 +1,206 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+
+/**
+ * The clique tree of a Bayesian Network, which does not depend on any evidence.
+ * The moral graph is triangulated by simulating an elimination order; every variable eliminated together
+ * with its neighbors at that time forms a clique, and the maximal cliques are connected into a tree that
+ * maximizes the size of the separators, which gives the running intersection property.
+ * Every CPT is assigned to one clique holding its whole family.
+ */
+public class JunctionTree {
+    private int[][] cliques;            // Variable ids of each clique, sorted
+    private int[] parent;               // Parent of each clique in the tree rooted at clique 0, or -1 for the root
+    private int[] order;                // Cliques in the order they joined the tree, every one after its parent
+    private int[][] separators;         // Variables each clique shares with its parent, sorted
+    private int[][] assignedNodes;      // Node ids of the CPTs assigned to each clique
+
+    /**
+     * Builds the clique tree of a network.
+     * @param network   The network
+     * @param heuristic The elimination order used to triangulate its moral graph
+     */
+    public JunctionTree(BayesianNetwork network, EliminationOrderHeuristic heuristic) {
+        MoralGraph graph = MoralGraph.of(network);
+        int[] variables = new int[graph.size()];
+        for (int variable = 0; variable < variables.length; variable++) {
+            variables[variable] = variable;
+        }
+
+        // Each eliminated variable forms a clique with its neighbors, unless an earlier clique holds them all
+        List<BitSet> maximal = new ArrayList<>();
+        BitSet[] adjacency = graph.copyNeighbors();
+        for (int variable : heuristic.order(graph, variables)) {
+            BitSet clique = (BitSet) adjacency[variable].clone();
+            clique.set(variable);
+            boolean contained = false;
+            for (BitSet other : maximal) {
+                BitSet rest = (BitSet) clique.clone();
+                rest.andNot(other);
+                if (rest.isEmpty()) {
+                    contained = true;
+                    break;
+                }
+            }
+            if (!contained) {
+                maximal.add(clique);
+            }
+            MoralGraph.eliminate(adjacency, variable);
+        }
+        this.cliques = new int[maximal.size()][];
+        for (int i = 0; i < cliques.length; i++) {
+            cliques[i] = maximal.get(i).stream().toArray();
+        }
+
+        connectCliques(maximal);
+        assignFactors(network);
+    }
+
+    /**
+     * Connects the cliques into a maximum spanning tree on separator sizes (Prim's algorithm) rooted at clique 0.
+     * Cliques of unconnected parts of the network are joined by empty separators.
+     * @param maximal The variables of each clique
+     */
+    private void connectCliques(List<BitSet> maximal) {
+        int n = maximal.size();
+        this.parent = new int[n];
+        this.order = new int[n];
+        this.separators = new int[n][];
+        int[] bestWeight = new int[n];
+        int[] bestParent = new int[n];
+        boolean[] inTree = new boolean[n];
+        Arrays.fill(bestWeight, -1);
+        Arrays.fill(bestParent, -1);
+        bestWeight[0] = 0;
+        for (int step = 0; step < n; step++) {
+            int next = -1;
+            for (int i = 0; i < n; i++) {
+                if (!inTree[i] && (next < 0 || bestWeight[i] > bestWeight[next])) {
+                    next = i;
+                }
+            }
+            inTree[next] = true;
+            order[step] = next;
+            parent[next] = bestParent[next];
+            BitSet separator = (BitSet) maximal.get(next).clone();
+            if (parent[next] >= 0) {
+                separator.and(maximal.get(parent[next]));
+            } else {
+                separator.clear();
+            }
+            separators[next] = separator.stream().toArray();
+
+            for (int i = 0; i < n; i++) {
+                if (!inTree[i]) {
+                    BitSet shared = (BitSet) maximal.get(i).clone();
+                    shared.and(maximal.get(next));
+                    if (shared.cardinality() > bestWeight[i]) {
+                        bestWeight[i] = shared.cardinality();
+                        bestParent[i] = next;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Assigns the CPT of every node to the first clique holding the node and its parents.
+     * @param network The network
+     */
+    private void assignFactors(BayesianNetwork network) {
+        List<List<Integer>> assigned = new ArrayList<>();
+        for (int i = 0; i < cliques.length; i++) {
+            assigned.add(new ArrayList<>());
+        }
+        NetworkGraph graph = network.getGraph();
+        int[] parentOffsets = graph.getParentOffsets();
+        int[] parents = graph.getParents();
+        for (int node = 0; node < graph.size(); node++) {
+            for (int i = 0; i < cliques.length; i++) {
+                boolean holdsFamily = Arrays.binarySearch(cliques[i], node) >= 0;
+                for (int p = parentOffsets[node]; p < parentOffsets[node + 1]; p++) {
+                    holdsFamily &= Arrays.binarySearch(cliques[i], parents[p]) >= 0;
+                }
+                if (holdsFamily) {
+                    assigned.get(i).add(node);
+                    break;
+                }
+            }
+        }
+        this.assignedNodes = new int[cliques.length][];
+        for (int i = 0; i < cliques.length; i++) {
+            assignedNodes[i] = assigned.get(i).stream().mapToInt(Integer::intValue).sorted().toArray();
+        }
+    }
+
+    /**
+     * Retrieves the number of cliques.
+     * @return The number of cliques
+     */
+    public int size() {
+        return cliques.length;
+    }
+
+    /**
+     * Retrieves the variables of a clique. The array must not be modified.
+     * @param clique The index of the clique
+     * @return The sorted variable ids
+     */
+    public int[] getClique(int clique) {
+        return cliques[clique];
+    }
+
+    /**
+     * Retrieves the parent of a clique.
+     * @param clique The index of the clique
+     * @return The index of its parent, or -1 for the root
+     */
+    public int getParent(int clique) {
+        return parent[clique];
+    }
+
+    /**
+     * Retrieves the cliques in the order they joined the tree, so every clique comes after its parent.
+     * The array must not be modified.
+     * @return The clique indices
+     */
+    public int[] getOrder() {
+        return order;
+    }
+
+    /**
+     * Retrieves the variables a clique shares with its parent. The array must not be modified.
+     * @param clique The index of the clique
+     * @return The sorted variable ids, empty for the root
+     */
+    public int[] getSeparator(int clique) {
+        return separators[clique];
+    }
+
+    /**
+     * Retrieves the nodes whose CPTs are assigned to a clique. The array must not be modified.
+     * @param clique The index of the clique
+     * @return The node ids
+     */
+    public int[] getAssignedNodes(int clique) {
+        return assignedNodes[clique];
+    }
+
+    /**
+     * Finds the smallest clique holding a variable.
+     * @param variable The id of the variable
+     * @return The index of the clique, or -1 if no clique holds it
+     */
+    public int findClique(int variable) {
+        int best = -1;
+        for (int i = 0; i < cliques.length; i++) {
+            if (Arrays.binarySearch(cliques[i], variable) >= 0 && (best < 0 || cliques[i].length < cliques[best].length)) {
+                best = i;
+            }
+        }
+        return best;
+    }
+}
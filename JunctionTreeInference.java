@@ -0,0 +1,361 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Answers queries on a Bayesian Network with the junction tree of the network, as a session whose evidence
+ * may change between queries.
+ * The evidence is applied to the CPTs, which are multiplied into the cliques they are assigned to; Shafer-Shenoy
+ * messages are then passed from the leaves to the root and back, after which every clique holds the joint
+ * distribution of its variables and the evidence. A posterior is read from the smallest clique holding the
+ * variable, by summing out the others, without any further message passing.
+ * When the evidence on a variable changes, only the cliques whose CPTs hold the variable are rebuilt, and only
+ * the messages depending on them are dropped. Messages are recomputed when a query needs them: the ones towards
+ * the root, then the ones from the root down to the clique queried.
+ */
+public class JunctionTreeInference {
+
+    private BayesianNetwork network;            // The network the queries are on
+    private SymbolTable symbols;                // Interned variable names and outcomes of the network
+    private JunctionTree tree;                  // The clique tree of the network
+    private InferenceContext context;           // Operation counts and factor ids of the calibration and the queries
+    private Map<Integer, Integer> evidence;     // Observed outcome index of each evidence variable
+    private List<List<Integer>> children;       // Children of each clique in the tree
+    private Factor[] potentials;                // Product of the CPTs of each clique with the evidence applied
+    private Factor[] up;                        // Message from each clique to its parent
+    private Factor[] down;                      // Message from the parent of each clique to it
+    private Factor[] beliefs;                   // Calibrated table of each clique, or null if no CPT reaches it
+    private boolean[] upValid;                  // Whether each upward message is up to date
+    private boolean[] downValid;                // Whether each downward message is up to date
+    private boolean[] beliefValid;              // Whether each belief is up to date
+    private int calibrationAdditions;           // Additions of the message passing for the current evidence
+    private int calibrationMultiplications;     // Multiplications of the message passing for the current evidence
+
+    /**
+     * Applies the evidence and calibrates the junction tree of the network.
+     *
+     * @param network  Bayesian network
+     * @param evidence Array of evidence in the format Node=Value
+     */
+    public JunctionTreeInference(BayesianNetwork network, String[] evidence) {
+        this.network = network;
+        this.symbols = network.getSymbolTable();
+        this.tree = network.getJunctionTree();
+        this.context = new InferenceContext(symbols.size());   // Joined factors are numbered after the CPT factors
+        this.evidence = new HashMap<>();
+
+        for (String evidenceItem : evidence) {
+            String[] parts = evidenceItem.split("=");
+            Node node = parts.length == 2 ? network.getNodeByName(parts[0].trim()) : null;
+            if (node != null) {
+                this.evidence.put(node.getNodeId(), symbols.getOutcomeIndex(node.getNodeId(), parts[1].trim()));
+            } else {
+                System.err.println("Warning: Incorrect evidence or node not found in the network - " + evidenceItem);
+            }
+        }
+        calibrate();
+    }
+
+    /**
+     * Builds the potentials of all cliques and passes all messages up to the root and back down.
+     */
+    private void calibrate() {
+        int n = tree.size();
+        this.children = new ArrayList<>();
+        for (int clique = 0; clique < n; clique++) {
+            children.add(new ArrayList<>());
+        }
+        for (int clique = 0; clique < n; clique++) {
+            if (tree.getParent(clique) >= 0) {
+                children.get(tree.getParent(clique)).add(clique);
+            }
+        }
+        this.potentials = new Factor[n];
+        this.up = new Factor[n];
+        this.down = new Factor[n];
+        this.beliefs = new Factor[n];
+        this.upValid = new boolean[n];
+        this.downValid = new boolean[n];
+        this.beliefValid = new boolean[n];
+        for (int clique = 0; clique < n; clique++) {
+            potentials[clique] = buildPotential(clique);
+        }
+        for (int clique : tree.getOrder()) {
+            belief(clique);
+        }
+        this.calibrationAdditions = context.getAdditionCount();
+        this.calibrationMultiplications = context.getMultiplicationCount();
+    }
+
+    /**
+     * Multiplies the CPTs assigned to a clique, with the evidence applied to copies of them.
+     *
+     * @param clique The index of the clique
+     * @return The potential of the clique, or null if no CPT is assigned to it
+     */
+    private Factor buildPotential(int clique) {
+        int[] evidenceVariables = new int[evidence.size()];
+        int[] evidenceOutcomes = new int[evidence.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> entry : evidence.entrySet()) {
+            evidenceVariables[i] = entry.getKey();
+            evidenceOutcomes[i++] = entry.getValue();
+        }
+        List<Factor> cpts = new ArrayList<>();
+        for (int node : tree.getAssignedNodes(clique)) {
+            Factor cpt = network.getNodeByName(symbols.getVariableName(node)).getFactor().clone();
+            cpt.filterRows(evidenceVariables, evidenceOutcomes);
+            cpts.add(cpt);
+        }
+        return multiply(cpts);
+    }
+
+    /**
+     * Retrieves the calibrated table of a clique, first bringing up to date the messages it depends on.
+     *
+     * @param clique The index of the clique
+     * @return The joint table of its variables and the evidence, or null if no CPT reaches it
+     */
+    private Factor belief(int clique) {
+        if (beliefValid[clique]) {
+            return beliefs[clique];
+        }
+        int prevAdd = context.getAdditionCount();
+        int prevMult = context.getMultiplicationCount();
+
+        // Collect: every clique sends its parent what it and its subtree know about their separator
+        int[] order = tree.getOrder();
+        for (int k = order.length - 1; k > 0; k--) {
+            int c = order[k];
+            if (!upValid[c]) {
+                List<Factor> incoming = new ArrayList<>();
+                incoming.add(potentials[c]);
+                for (int child : children.get(c)) {
+                    incoming.add(up[child]);
+                }
+                up[c] = marginalize(multiply(incoming), tree.getSeparator(c));
+                upValid[c] = true;
+            }
+        }
+
+        // Distribute along the path from the root: every clique sends its child what the rest of the tree knows
+        Deque<Integer> path = new ArrayDeque<>();
+        for (int c = clique; tree.getParent(c) >= 0; c = tree.getParent(c)) {
+            path.push(c);
+        }
+        for (int c : path) {
+            if (!downValid[c]) {
+                int parent = tree.getParent(c);
+                List<Factor> incoming = new ArrayList<>();
+                incoming.add(potentials[parent]);
+                incoming.add(down[parent]);
+                for (int sibling : children.get(parent)) {
+                    if (sibling != c) {
+                        incoming.add(up[sibling]);
+                    }
+                }
+                down[c] = marginalize(multiply(incoming), tree.getSeparator(c));
+                downValid[c] = true;
+            }
+        }
+
+        List<Factor> incoming = new ArrayList<>();
+        incoming.add(potentials[clique]);
+        incoming.add(down[clique]);
+        for (int child : children.get(clique)) {
+            incoming.add(up[child]);
+        }
+        beliefs[clique] = multiply(incoming);
+        beliefValid[clique] = true;
+        calibrationAdditions += context.getAdditionCount() - prevAdd;
+        calibrationMultiplications += context.getMultiplicationCount() - prevMult;
+        return beliefs[clique];
+    }
+
+    /**
+     * Observes an outcome of a node, replacing any evidence it had.
+     *
+     * @param nodeName The name of the node
+     * @param outcome  The observed outcome
+     */
+    public void setEvidence(String nodeName, String outcome) {
+        Node node = network.getNodeByName(nodeName.trim());
+        if (node == null) {
+            System.err.println("Warning: Evidence node not found in the network - " + nodeName);
+            return;
+        }
+        evidence.put(node.getNodeId(), symbols.getOutcomeIndex(node.getNodeId(), outcome.trim()));
+        evidenceChanged(node.getNodeId());
+    }
+
+    /**
+     * Removes the evidence on a node.
+     *
+     * @param nodeName The name of the node
+     */
+    public void removeEvidence(String nodeName) {
+        Node node = network.getNodeByName(nodeName.trim());
+        if (node != null && evidence.remove(node.getNodeId()) != null) {
+            evidenceChanged(node.getNodeId());
+        }
+    }
+
+    /**
+     * Rebuilds the potentials holding a variable whose evidence changed, and drops the messages depending on them.
+     * The message to the parent of a clique is dropped when a rebuilt clique is in its subtree, and the message
+     * from the parent unless all rebuilt cliques are. Every belief is dropped.
+     *
+     * @param variable The id of the variable
+     */
+    private void evidenceChanged(int variable) {
+        int prevAdd = context.getAdditionCount();
+        int prevMult = context.getMultiplicationCount();
+        int n = tree.size();
+        int[] rebuiltBelow = new int[n];        // Number of rebuilt cliques in the subtree of each clique
+        int rebuilt = 0;
+        for (int clique = 0; clique < n; clique++) {
+            boolean holds = false;
+            for (int node : tree.getAssignedNodes(clique)) {
+                holds |= network.getNodeByName(symbols.getVariableName(node)).getFactor().involvesVariable(variable);
+            }
+            if (holds) {
+                potentials[clique] = buildPotential(clique);
+                rebuilt++;
+                for (int c = clique; c >= 0; c = tree.getParent(c)) {
+                    rebuiltBelow[c]++;
+                }
+            }
+        }
+        for (int clique = 0; clique < n; clique++) {
+            upValid[clique] &= rebuiltBelow[clique] == 0;
+            downValid[clique] &= rebuiltBelow[clique] == rebuilt;
+            beliefValid[clique] = false;
+        }
+        this.calibrationAdditions = context.getAdditionCount() - prevAdd;
+        this.calibrationMultiplications = context.getMultiplicationCount() - prevMult;
+    }
+
+    /**
+     * Multiplies factors together, in order.
+     *
+     * @param factors The factors, where null stands for a table of ones
+     * @return Their product, one of the factors itself if it is the only one, or null if there is none
+     */
+    private Factor multiply(List<Factor> factors) {
+        Factor product = null;
+        for (Factor factor : factors) {
+            if (factor != null) {
+                product = product == null ? factor : Factor.joinFactors(context, product, factor);
+            }
+        }
+        return product;
+    }
+
+    /**
+     * Sums out every variable of a factor except the given ones.
+     *
+     * @param factor The factor, which is left unchanged, or null for a table of ones
+     * @param keep   The sorted ids of the variables to keep
+     * @return A new factor over the kept variables it holds, or null if the factor is null
+     */
+    private Factor marginalize(Factor factor, int[] keep) {
+        if (factor == null) {
+            return null;
+        }
+        Factor marginal = factor.clone();
+        for (int variable : factor.getVariables()) {
+            if (Arrays.binarySearch(keep, variable) < 0) {
+                marginal.eliminateFactor(context, variable);
+            }
+        }
+        return marginal;
+    }
+
+    /**
+     * Computes the posterior distribution of a variable given the evidence.
+     *
+     * @param variable The id of the variable
+     * @return The probability of each of its outcomes, by outcome index
+     */
+    public double[] getPosterior(int variable) {
+        double[] posterior = new double[symbols.getCardinality(variable)];
+        Integer observed = evidence.get(variable);
+        if (observed != null) {
+            if (observed >= 0) {
+                posterior[observed] = 1.0;
+            }
+            return posterior;
+        }
+
+        int clique = tree.findClique(variable);
+        Factor belief = clique < 0 ? null : belief(clique);
+        if (belief == null || !belief.involvesVariable(variable)) {
+            if (posterior.length == 1) {
+                posterior[0] = 1.0;     // Joins drop variables with a single outcome
+            }
+            return posterior;
+        }
+        Factor marginal = marginalize(belief, new int[]{variable});
+        marginal.normalize(context);
+        for (int outcome = 0; outcome < posterior.length; outcome++) {
+            posterior[outcome] = marginal.getProbability(variable, outcome);
+        }
+        return posterior;
+    }
+
+    /**
+     * Computes the posterior distribution of every variable that is not observed, all from the one calibration,
+     * so the cost is that of the two passes and one small marginal per variable.
+     *
+     * @return The probability of each outcome by outcome index, for each node name in the order of the node ids
+     */
+    public Map<String, double[]> getAllPosteriors() {
+        Map<String, double[]> posteriors = new LinkedHashMap<>();
+        for (int variable = 0; variable < symbols.size(); variable++) {
+            if (!evidence.containsKey(variable)) {
+                posteriors.put(symbols.getVariableName(variable), getPosterior(variable));
+            }
+        }
+        return posteriors;
+    }
+
+    /**
+     * Retrieves the operation counts of the message passing for the current evidence, which all posteriors share:
+     * the whole calibration until the evidence first changes, and afterwards the potentials rebuilt by the last
+     * change and the messages recomputed since.
+     *
+     * @return The additions and the multiplications
+     */
+    public int[] getCalibrationCounts() {
+        return new int[]{calibrationAdditions, calibrationMultiplications};
+    }
+
+    /**
+     * Retrieves the answer to a query.
+     *
+     * @param query Query specifying the target node and outcome, in the format Node=Value
+     * @return String representation of the probability, and of the additions and multiplications of the
+     *         message passing for the current evidence and of this query
+     */
+    public String getFinalAnswer(String query) {
+        String[] parts = query.split("=");
+        Node node = parts.length == 2 ? network.getNodeByName(parts[0].trim()) : null;
+        double probability = 0;
+        int prevAdd = context.getAdditionCount() - calibrationAdditions;     // Messages recomputed now count once
+        int prevMult = context.getMultiplicationCount() - calibrationMultiplications;
+        if (node != null) {
+            int outcome = symbols.getOutcomeIndex(node.getNodeId(), parts[1].trim());
+            if (outcome >= 0) {
+                probability = getPosterior(node.getNodeId())[outcome];
+            }
+        }
+        return String.format("%.5f,%d,%d", probability,
+                context.getAdditionCount() - prevAdd, context.getMultiplicationCount() - prevMult);
+    }
+}
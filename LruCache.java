@@ -0,0 +1,77 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A least recently used cache, dropping the entry used longest ago once it holds more than its capacity.
+ * The cache is safe to use from several threads, and counts the lookups that found an entry and those that did not.
+ * Keys must not change once they are put in the cache.
+ * @param <K> The type of the keys
+ * @param <V> The type of the cached values
+ */
+public class LruCache<K, V> {
+    private final Map<K, V> entries;    // Entries in access order, the least recently used first
+    private long hits;                  // Lookups that found an entry
+    private long misses;                // Lookups that did not
+
+    /**
+     * Constructs an empty cache.
+     * @param capacity The number of entries kept; the least recently used one is dropped beyond it
+     */
+    public LruCache(int capacity) {
+        this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Retrieves a value, marking its entry as recently used.
+     * @param key The key of the entry
+     * @return The value, or null if it is not cached
+     */
+    public synchronized V get(K key) {
+        V value = entries.get(key);
+        if (value != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return value;
+    }
+
+    /**
+     * Caches a value.
+     * @param key   The key of the entry
+     * @param value The value
+     */
+    public synchronized void put(K key, V value) {
+        entries.put(key, value);
+    }
+
+    /**
+     * Retrieves the number of lookups that found an entry.
+     * @return The hits since the cache was constructed
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Retrieves the number of lookups that did not find an entry.
+     * @return The misses since the cache was constructed
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Retrieves the number of cached entries.
+     * @return The number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+}
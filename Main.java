@@ -76,15 +76,13 @@ public class Main {
      */
     private static List<String> processQueries(BayesianNetwork network, List<String> queries) {
         List<String> results = new ArrayList<>();
-        BayesianNetwork cloneNetwork;
         for (String query : queries) {
+            // No query changes the network, so they all run on it directly
             if (query.startsWith("P(")) {
-                cloneNetwork = network.clone();
-                String result = processVariableEliminationQuery(cloneNetwork, query);
+                String result = processVariableEliminationQuery(network, query);
                 results.add(result);
             } else if (!(query.startsWith("P("))) {
-                cloneNetwork = network.clone();
-                String result = processIndependenceQuery(cloneNetwork, query);
+                String result = processIndependenceQuery(network, query);
                 results.add(result);
             } else {
                 System.out.printf("Unhandled query format: %s%n", query);
@@ -125,6 +123,26 @@ public class Main {
         return result;
     }
 
+    /**
+     * Checks whether the second part of a query line is an engine's name or lists nodes of the network, so that
+     * a misspelled heuristic is not taken for an order of nodes that do not exist.
+     *
+     * @param network The Bayesian Network the query is on.
+     * @param order   The second part of the query line, which is not the name of a heuristic.
+     * @return        true if it names an engine or every name in it is a node of the network.
+     */
+    private static boolean isEliminationOrder(BayesianNetwork network, String order) {
+        if (order.equals("junction-tree") || order.equals("cutset-conditioning")) {
+            return true;
+        }
+        for (String name : order.split("-")) {
+            if (network.getNodeByName(name.trim()) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Processes a variable elimination query on the Bayesian Network.
      *
@@ -133,7 +151,7 @@ public class Main {
      * @return        The result of the variable elimination query.
      */
     private static String processVariableEliminationQuery(BayesianNetwork network, String query) {
-        System.out.println("Received query: " + query);
+        Trace.event(Trace.Level.INFO, Trace.Event.QUERY_RECEIVED, query, 0);
 
         // Split the query by space to separate parts
         String[] splitQuery = query.split(" ");
@@ -147,17 +165,17 @@ public class Main {
                 // No evidence provided
                 String queryNode = parts[0];
                 String[] evidence = new String[0];
-                String[] hiddenVariables = new String[0]; // No hidden variables
 
-                VariableElimination ve = new VariableElimination(network, queryNode, hiddenVariables, evidence);
+                // No order given, so the engine chooses one
+                VariableElimination ve = new VariableElimination(network, queryNode, EliminationOrderHeuristic.DEFAULT, evidence);
                 return ve.getFinalAnswer();
             } else if (parts.length == 2) {
                 // Evidence is provided
                 String queryNode = parts[0];
                 String[] evidence = parts[1].split(",");
-                String[] hiddenVariables = new String[0]; // No hidden variables
 
-                VariableElimination ve = new VariableElimination(network, queryNode, hiddenVariables, evidence);
+                // No order given, so the engine chooses one
+                VariableElimination ve = new VariableElimination(network, queryNode, EliminationOrderHeuristic.DEFAULT, evidence);
                 return ve.getFinalAnswer();
             } else {
                 return "Error: Probability query part is missing evidence.";
@@ -167,15 +185,31 @@ public class Main {
         // Original logic for when elimination order is provided
         String probabilityPart = splitQuery[0].replace("P(", "").replace(")", "");
         String eliminationOrderStr = splitQuery[1];
+        EliminationOrderHeuristic heuristic = EliminationOrderHeuristic.forName(eliminationOrderStr);  // A heuristic may be named instead
 
         String[] parts = probabilityPart.split("\\|");
+        if (heuristic == null && !isEliminationOrder(network, eliminationOrderStr)) {
+            return "Error: Unknown elimination order or heuristic - " + eliminationOrderStr;
+        }
+        if (eliminationOrderStr.equals("junction-tree") && parts.length <= 2) {
+            // Calibrate the junction tree instead of eliminating
+            String[] evidence = parts.length == 2 ? parts[1].split(",") : new String[0];
+            return new JunctionTreeInference(network, evidence).getFinalAnswer(parts[0]);
+        }
+        if (eliminationOrderStr.equals("cutset-conditioning") && parts.length <= 2) {
+            // Condition on a loop cutset instead of eliminating
+            String[] evidence = parts.length == 2 ? parts[1].split(",") : new String[0];
+            return new CutsetConditioning(network, parts[0], evidence).getFinalAnswer();
+        }
         if (parts.length == 1) {
             // No evidence provided
             String queryNode = parts[0];
             String[] evidence = new String[0];
             String[] hiddenVariables = eliminationOrderStr.split("-");
 
-            VariableElimination ve = new VariableElimination(network, queryNode, hiddenVariables, evidence);
+            VariableElimination ve = heuristic != null
+                    ? new VariableElimination(network, queryNode, heuristic, evidence)
+                    : new VariableElimination(network, queryNode, hiddenVariables, evidence);
             return ve.getFinalAnswer();
         } else if (parts.length == 2) {
             // Evidence is provided
@@ -183,7 +217,9 @@ public class Main {
             String[] evidence = parts[1].split(",");
             String[] hiddenVariables = eliminationOrderStr.split("-");
 
-            VariableElimination ve = new VariableElimination(network, queryNode, hiddenVariables, evidence);
+            VariableElimination ve = heuristic != null
+                    ? new VariableElimination(network, queryNode, heuristic, evidence)
+                    : new VariableElimination(network, queryNode, hiddenVariables, evidence);
             return ve.getFinalAnswer();
         } else {
             return "Error: Probability query part is missing evidence.";
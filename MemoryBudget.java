@@ -0,0 +1,103 @@
+/**
+ * Limits the size of the tables variable elimination may build, and decides what happens to a query whose plan
+ * would exceed the limit. The size of every table a plan builds is known from its variables before it runs.
+ * The default budget is read at startup from -Dinference.maxTableSize=rows and
+ * -Dinference.budgetPolicy=reject|reorder|condition, and is unlimited unless set or if either is malformed.
+ */
+public final class MemoryBudget {
+
+    /**
+     * What to do with a query whose plan exceeds the budget.
+     */
+    public enum Policy {
+        REJECT,         // Refuse the query
+        REORDER,        // Try the other elimination heuristics, and refuse the query if none fits
+        CONDITION       // Try the other heuristics, then condition on variables until the plan fits
+    }
+
+    /**
+     * How a query was fitted into the budget.
+     */
+    public enum Outcome {
+        WITHIN_BUDGET,  // The plan fitted as it was
+        REORDERED,      // Another elimination order fitted
+        CONDITIONED,    // The query was summed over the outcomes of some variables, each run fitting
+        REJECTED        // Nothing fitted, so the query was not run
+    }
+
+    public static final MemoryBudget UNLIMITED = new MemoryBudget(Long.MAX_VALUE, Policy.REJECT);
+
+    private static volatile MemoryBudget defaultBudget = parse(System.getProperty("inference.maxTableSize"),
+            System.getProperty("inference.budgetPolicy", "reorder"));
+
+    private final long maxTableSize;    // Largest number of rows a table may have
+    private final Policy policy;        // What to do with a query exceeding the budget
+
+    /**
+     * Constructs a budget.
+     * @param maxTableSize The largest number of rows a table may have
+     * @param policy       What to do with a query exceeding the budget
+     */
+    public MemoryBudget(long maxTableSize, Policy policy) {
+        this.maxTableSize = maxTableSize;
+        this.policy = policy;
+    }
+
+    /**
+     * Reads a budget as it is given at startup.
+     * @param maxTableSize The largest number of rows a table may have, or null for no limit
+     * @param policy       The name of the policy, in any case
+     * @return The budget, or UNLIMITED if there is no limit or either value is malformed
+     */
+    static MemoryBudget parse(String maxTableSize, String policy) {
+        if (maxTableSize == null) {
+            return UNLIMITED;
+        }
+        long rows;
+        Policy parsedPolicy;
+        try {
+            rows = Long.parseLong(maxTableSize.trim());
+            parsedPolicy = Policy.valueOf(policy.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            rows = 0;                   // Also thrown for a malformed number
+            parsedPolicy = null;
+        }
+        if (rows > 0) {
+            return new MemoryBudget(rows, parsedPolicy);
+        }
+        System.err.println("Invalid memory budget " + maxTableSize + " rows, " + policy + ", queries are unlimited");
+        return UNLIMITED;
+    }
+
+    /**
+     * Retrieves the budget queries run with.
+     * @return The default budget
+     */
+    public static MemoryBudget getDefault() {
+        return defaultBudget;
+    }
+
+    /**
+     * Replaces the budget queries run with.
+     * @param budget The new default budget
+     */
+    public static void setDefault(MemoryBudget budget) {
+        defaultBudget = budget;
+    }
+
+    /**
+     * Retrieves the largest number of rows a table may have.
+     * @return The limit on table sizes
+     */
+    public long getMaxTableSize() {
+        return maxTableSize;
+    }
+
+    /**
+     * Retrieves what happens to a query exceeding the budget.
+     * @return The policy
+     */
+    public Policy getPolicy() {
+        return policy;
+    }
+}
@@ -0,0 +1,131 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+
+/**
+ * The undirected graph variable elimination works on: two variables are adjacent when some factor holds both.
+ * Built from the CPTs of a Bayesian Network, this is its moral graph (every node tied to its parents, and
+ * the parents of a node married to each other).
+ * Variables are the ids of the network's symbol table, and each carries its number of outcomes as a weight.
+ */
+public class MoralGraph {
+    private BitSet[] neighbors;         // Adjacent variables of each variable
+    private int[] cardinalities;        // Number of outcomes of each variable
+
+    /**
+     * Constructs the graph of a set of factor scopes.
+     * @param symbols The symbol table of the variables
+     * @param scopes  The ids of the variables of each factor
+     */
+    public MoralGraph(SymbolTable symbols, Collection<int[]> scopes) {
+        this.neighbors = new BitSet[symbols.size()];
+        this.cardinalities = new int[symbols.size()];
+        for (int variable = 0; variable < symbols.size(); variable++) {
+            neighbors[variable] = new BitSet(symbols.size());
+            cardinalities[variable] = symbols.getCardinality(variable);
+        }
+        for (int[] scope : scopes) {
+            for (int u : scope) {
+                for (int v : scope) {
+                    if (u != v) {
+                        neighbors[u].set(v);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Constructs the moral graph of a Bayesian Network.
+     * @param network The network
+     * @return The graph with an edge between every node and its parents, and between parents of a node
+     */
+    public static MoralGraph of(BayesianNetwork network) {
+        NetworkGraph graph = network.getGraph();
+        List<int[]> families = new ArrayList<>();
+        for (int node = 0; node < graph.size(); node++) {
+            int[] family = Arrays.copyOfRange(graph.getParents(), graph.getParentOffsets()[node],
+                    graph.getParentOffsets()[node + 1] + 1);
+            family[family.length - 1] = node;
+            families.add(family);
+        }
+        return new MoralGraph(network.getSymbolTable(), families);
+    }
+
+    /**
+     * Copies the adjacency of every variable, to be changed while an elimination is simulated.
+     * @return A new array of new bit sets
+     */
+    BitSet[] copyNeighbors() {
+        BitSet[] copy = new BitSet[neighbors.length];
+        for (int variable = 0; variable < neighbors.length; variable++) {
+            copy[variable] = (BitSet) neighbors[variable].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * Retrieves the number of outcomes of a variable.
+     * @param variable The id of the variable
+     * @return The cardinality used as the variable's weight
+     */
+    public int getCardinality(int variable) {
+        return cardinalities[variable];
+    }
+
+    /**
+     * Retrieves the number of variables of the graph.
+     * @return The number of variables, including those no factor holds
+     */
+    public int size() {
+        return neighbors.length;
+    }
+
+    /**
+     * Simulates eliminating variables in the given order and sums the sizes of the tables it creates.
+     * Eliminating a variable joins it with all its current neighbors, which then become adjacent.
+     * @param order The ids of the variables in elimination order
+     * @return The total number of rows of the joined tables
+     */
+    public long cost(int[] order) {
+        BitSet[] adjacency = copyNeighbors();
+        long cost = 0;
+        for (int variable : order) {
+            cost += tableSize(variable, adjacency[variable]);
+            eliminate(adjacency, variable);
+        }
+        return cost;
+    }
+
+    /**
+     * Computes the size of the table joining a variable with its neighbors.
+     * @param variable The id of the variable
+     * @param adjacent Its current neighbors
+     * @return The product of their cardinalities, capped at Long.MAX_VALUE
+     */
+    long tableSize(int variable, BitSet adjacent) {
+        long size = cardinalities[variable];
+        for (int v = adjacent.nextSetBit(0); v >= 0; v = adjacent.nextSetBit(v + 1)) {
+            size = size > Long.MAX_VALUE / cardinalities[v] ? Long.MAX_VALUE : size * cardinalities[v];
+        }
+        return size;
+    }
+
+    /**
+     * Removes a variable from a simulated graph, connecting its neighbors to each other.
+     * @param adjacency The neighbors of every variable, changed in place
+     * @param variable  The id of the variable to eliminate
+     */
+    static void eliminate(BitSet[] adjacency, int variable) {
+        BitSet adjacent = adjacency[variable];
+        for (int v = adjacent.nextSetBit(0); v >= 0; v = adjacent.nextSetBit(v + 1)) {
+            adjacency[v].or(adjacent);
+            adjacency[v].clear(v);
+            adjacency[v].clear(variable);
+        }
+        adjacent.clear();
+    }
+}
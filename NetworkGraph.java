@@ -0,0 +1,92 @@
+/**
+ * An immutable, compact view of the structure of a Bayesian Network, for traversals that would otherwise chase
+ * Node objects through lists: the parents and children of every node, by id, in compressed sparse rows.
+ * The parents of node v are parents[parentOffsets[v]] to parents[parentOffsets[v + 1] - 1], in the order of its
+ * CPT, and likewise for its children. The view is built once the network is loaded, and may be used by several
+ * threads.
+ */
+public final class NetworkGraph {
+    private final int[] parentOffsets;          // Start of the parents of each node, and the total at the end
+    private final int[] parents;                // Parent ids of all nodes, node by node
+    private final int[] childOffsets;           // Start of the children of each node, and the total at the end
+    private final int[] children;               // Child ids of all nodes, node by node
+
+    /**
+     * Builds the view of a network.
+     * @param network The network, whose nodes and edges must not change afterwards
+     */
+    public NetworkGraph(BayesianNetwork network) {
+        int n = network.getSymbolTable().size();
+        Node[] nodes = new Node[n];
+        for (Node node : network.getNodes()) {
+            nodes[node.getNodeId()] = node;
+        }
+        this.parentOffsets = new int[n + 1];
+        this.childOffsets = new int[n + 1];
+        for (int node = 0; node < n; node++) {
+            parentOffsets[node + 1] = parentOffsets[node] + nodes[node].getParents().size();
+            childOffsets[node + 1] = childOffsets[node] + nodes[node].getChildren().size();
+        }
+        this.parents = new int[parentOffsets[n]];
+        this.children = new int[childOffsets[n]];
+        for (int node = 0; node < n; node++) {
+            int i = parentOffsets[node];
+            for (Node parent : nodes[node].getParents()) {
+                parents[i++] = parent.getNodeId();
+            }
+            i = childOffsets[node];
+            for (Node child : nodes[node].getChildren()) {
+                children[i++] = child.getNodeId();
+            }
+        }
+    }
+
+    /**
+     * Retrieves the number of nodes.
+     * @return The number of nodes, whose ids are 0 to size() - 1
+     */
+    public int size() {
+        return parentOffsets.length - 1;
+    }
+
+    /**
+     * Retrieves where the parents of each node start. The array must not be modified.
+     * @return The offsets into getParents(), one per node and the number of edges at the end
+     */
+    public int[] getParentOffsets() {
+        return parentOffsets;
+    }
+
+    /**
+     * Retrieves the parents of all nodes. The array must not be modified.
+     * @return The parent ids, node by node
+     */
+    public int[] getParents() {
+        return parents;
+    }
+
+    /**
+     * Retrieves where the children of each node start. The array must not be modified.
+     * @return The offsets into getChildren(), one per node and the number of edges at the end
+     */
+    public int[] getChildOffsets() {
+        return childOffsets;
+    }
+
+    /**
+     * Retrieves the children of all nodes. The array must not be modified.
+     * @return The child ids, node by node
+     */
+    public int[] getChildren() {
+        return children;
+    }
+
+    /**
+     * Counts the parents of a node.
+     * @param node The id of the node
+     * @return Its number of parents
+     */
+    public int parentCount(int node) {
+        return parentOffsets[node + 1] - parentOffsets[node];
+    }
+}
@@ -7,17 +7,14 @@ import java.util.*;
  */
 public class Node implements Cloneable {
     private String nodeName;                           // Name of the node
+    private int nodeId;                                // Id of the node's variable in the network's symbol table
     private List<Node> children;                       // List of child nodes
     private List<Node> parents;                        // List of parent nodes
     private List<String> possibleStates;               // List of possible states for the node
     private BayesianNetwork network;                   // The Bayesian Network this node belongs to
     private Factor factor;                             // The factor associated with this node
     private CPT cpt;                                   // The conditional probability table (CPT) for this node
-    private boolean isColored;                         // Indicates if the node is colored (visited)
-    private boolean isVisitedFromParent;               // Indicates if the node is visited from a parent node
-    private boolean isVisitedFromChild;                // Indicates if the node is visited from a child node
-    private String color;                              // Color of the node (used in algorithms)
-                                                       // NOTE: the last 4 variables are used in BayesBall algo
+
     /**
      * Constructs a Node with the specified name.
      * @param nodeName The name of the node.
@@ -28,10 +25,6 @@ public class Node implements Cloneable {
         this.parents = new ArrayList<>();
         this.possibleStates = new ArrayList<>();
         this.cpt = new CPT(this);
-        this.isColored = false;
-        this.isVisitedFromParent = false;
-        this.isVisitedFromChild = false;
-        this.color = "white";                   // Default color
     }
 
     /**
@@ -40,6 +33,7 @@ public class Node implements Cloneable {
      */
     public Node(Node other) {
         this.nodeName = other.getNodeName();
+        this.nodeId = other.getNodeId();
         this.parents = new ArrayList<>(other.getParents());
         this.children = new ArrayList<>(other.getChildren());
         this.possibleStates = new ArrayList<>(other.getPossibleStates());
@@ -48,93 +42,50 @@ public class Node implements Cloneable {
 
     /**
      * Builds the Conditional Probability Table (CPT) for the node.
+     * The probabilities are expected in XMLBIF TABLE order: parents in the order they were given, then this node.
      * @param table Array of probabilities as strings.
      */
     public void buildCPT(String[] table) {
-        int numParentStates = 1;
+        int[] cardinalities = new int[this.parents.size() + 1];
+        int totalStates = 1;
 
-        // Calculate the number of possible states for the parent nodes
-        for (Node parent : this.parents) {
-            numParentStates *= parent.getPossibleStates().size();
-        }
-
-        // Calculate the total number of states for this node and its parents
-        int totalStates = numParentStates * this.possibleStates.size();
-
-        // Initialize the keys for the CPT
-        List<String> curr_keys = new ArrayList<>(Collections.nCopies(totalStates, ""));
-        if (!this.parents.isEmpty()) {
-            int size_of_steps = curr_keys.size();
-            for (Node parent : this.parents) {
-                size_of_steps = size_of_steps / parent.getPossibleStates().size();
-                int k = 0, i = 0, counter = 0;
-
-                // Generate the keys based on parent states
-                while (k < curr_keys.size()) {
-                    if (counter < size_of_steps) {
-                        curr_keys.set(k, curr_keys.get(k) + parent.getPossibleStates().get(i) + ",");
-                        counter++;
-                        k++;
-                    } else {
-                        i++;
-                        i = i % parent.getPossibleStates().size();
-                        counter = 0;
-                    }
-                }
-            }
-        }
-
-        int stateIndex = 0;
-
-        // Append this node's states to the keys
-        for (int i = 0; i < curr_keys.size(); i++) {
-            curr_keys.set(i, curr_keys.get(i) + this.possibleStates.get(stateIndex) + ",");
-            stateIndex = (stateIndex + 1) % this.possibleStates.size();
+        // Calculate the number of possible states for the parent nodes and this node
+        for (int i = 0; i < this.parents.size(); i++) {
+            cardinalities[i] = this.parents.get(i).getPossibleStates().size();
+            totalStates *= cardinalities[i];
         }
+        cardinalities[this.parents.size()] = this.possibleStates.size();
+        totalStates *= this.possibleStates.size();
 
         // Fill the CPT with probabilities
-        for (int i = 0; i < curr_keys.size(); i++) {
-            String key = curr_keys.get(i);
-            if (key.endsWith(",")) {
-                key = key.substring(0, key.length() - 1);   // Remove the last comma
-            }
-            List<String> keyComponents = Arrays.asList(key.split(","));
-            this.cpt.setProbability(keyComponents, Double.parseDouble(table[i]));
+        double[] probabilities = new double[totalStates];
+        for (int i = 0; i < totalStates; i++) {
+            probabilities[i] = Double.parseDouble(table[i]);
         }
+        this.cpt.setProbabilities(probabilities, cardinalities);
     }
 
     /**
      * Creates a factor for the node using its CPT.
+     * The factor's variables follow the XMLBIF table order: the parents first, then the node itself.
+     * The factor takes the id following the node's, so the CPT factors of a network are numbered 1 to n.
+     * @param symbols The symbol table of the network the node belongs to.
      * @return A Factor representing the node's CPT.
      */
-    public Factor createFactor() {
-        Map<String, Double> probabilityTable = new HashMap<>();
-        List<String> dependencies = new ArrayList<>();
-
-        // Node itself is also a part of the dependencies
-        dependencies.add(this.nodeName);
-        for (Node parent : this.parents) {
-            dependencies.add(parent.getNodeName());
+    public Factor createFactor(SymbolTable symbols) {
+        int[] dependencies = new int[this.parents.size() + 1];
+        int[][] outcomes = new int[dependencies.length][];
+        for (int i = 0; i < this.parents.size(); i++) {
+            dependencies[i] = this.parents.get(i).getNodeId();
+            outcomes[i] = symbols.getAllOutcomes(dependencies[i]);
         }
 
-        // Collect keys in the correct order according to the CPT
-        for (Map.Entry<List<String>, Double> entry : this.cpt.getProbabilityTable().entrySet()) {
-            List<String> keyComponents = entry.getKey();
-            StringBuilder sb = new StringBuilder();
-
-            // Process parents first
-            for (int i = 0; i < this.parents.size(); i++) {
-                if (sb.length() > 0) sb.append(",");
-                sb.append(this.parents.get(i).getNodeName()).append("=").append(keyComponents.get(i));
-            }
-
-            // Add the target node (this node) with handling to not prepend a comma if there are no parents
-            if (sb.length() > 0) sb.append(",");
-            sb.append(this.nodeName).append("=").append(keyComponents.get(keyComponents.size() - 1));
+        // Node itself is also a part of the dependencies
+        dependencies[this.parents.size()] = this.nodeId;
+        outcomes[this.parents.size()] = symbols.getAllOutcomes(this.nodeId);
 
-            probabilityTable.put(sb.toString(), entry.getValue());
-        }
-        return new Factor(probabilityTable, dependencies);
+        // The CPT is already in the factor's table order, so its array is wrapped without copying
+        return new Factor(symbols, nodeId + 1, dependencies, outcomes, this.cpt.getProbabilityTable());
     }
 
     /**
@@ -202,52 +153,35 @@ public class Node implements Cloneable {
     }
 
     /**
-     * Gets the possible states of the node.
-     * @return A list of possible states.
-     */
-    public void addPossibleStates(ArrayList<String> outcomes) {
-        this.possibleStates = new ArrayList<>(outcomes);
-    }
-
-    /**
-     * Sets the factor associated with the node.
-     * @param factor The factor to set.
+     * Gets the id of the node's variable in the network's symbol table.
+     * @return The id of the node.
      */
-    public void setFactor(Factor factor) {
-        this.factor = factor;
+    public int getNodeId() {
+        return this.nodeId;
     }
 
     /**
-     * Sets the color of the node.
-     * @param color The color to set.
+     * Sets the id of the node's variable in the network's symbol table.
+     * @param nodeId The id to set.
      */
-    public void setColor(String color) {
-        this.color = color;
-        this.isColored = true;
+    public void setNodeId(int nodeId) {
+        this.nodeId = nodeId;
     }
 
     /**
-     * Gets the color of the node.
-     * @return The color of the node.
-     */
-    public String getColor() {
-        return color;
-    }
-
-    /**
-     * Checks if the node is colored (visited).
-     * @return True if colored, false otherwise.
+     * Gets the possible states of the node.
+     * @return A list of possible states.
      */
-    public boolean isColored() {
-        return isColored;
+    public void addPossibleStates(ArrayList<String> outcomes) {
+        this.possibleStates = new ArrayList<>(outcomes);
     }
 
     /**
-     * Sets the colored state of the node.
-     * @param bool The colored state to set.
+     * Sets the factor associated with the node.
+     * @param factor The factor to set.
      */
-    public void setIsColored(boolean bool){
-        this.isColored = bool;
+    public void setFactor(Factor factor) {
+        this.factor = factor;
     }
 
     /**
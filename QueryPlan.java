@@ -0,0 +1,154 @@
+/**
+ * The structure of a variable elimination query, which depends on the query variable, the evidence variables
+ * and the elimination order but not on the observed outcomes.
+ * A plan lists the CPT factors left after relevance pruning and, for every hidden variable in order, which
+ * factors its bucket joins. Factors are referred to by slot: the CPT factors take slots 0 to n-1, and the
+ * result of bucket k takes slot n+k. A plan may also fix the order of the joins within each bucket, chosen
+ * from the sizes of the intermediate tables; otherwise the factors of a bucket are joined in sorted order.
+ * Plans are immutable and may be executed by several queries at the same time.
+ */
+public final class QueryPlan {
+    private final int[] factorVariables;        // Node ids of the CPT factors used, one per slot from 0
+    private final int[] bucketVariables;        // Variable summed out by each bucket, in elimination order
+    private final int[][] bucketInputs;         // Slots of the factors each bucket joins
+    private final int[][] bucketJoins;          // Operand pairs of the joins of each bucket, or null for sorted order
+    private final long[] subtreeSizes;          // Rows joined by each bucket and the buckets below it
+    private final int[] remainingFactors;       // CPT factor slots no bucket consumed
+    private final int[] remainingBuckets;       // Buckets whose results no later bucket consumed, in order
+    private final boolean answered;             // Whether the last result answers the query without joining the rest
+    private final long peakTableSize;           // Rows of the largest table the plan may build
+    private final int[] peakScope;              // Variables of that table
+
+    /**
+     * Constructs a plan. The arrays are kept, so the caller must not change them afterwards.
+     * @param factorVariables  Node ids of the CPT factors used
+     * @param bucketVariables  Variable summed out by each bucket
+     * @param bucketInputs     Slots of the factors each bucket joins
+     * @param bucketJoins      Operand pairs of the joins of each bucket (see getBucketJoins), or null for sorted order
+     * @param bucketSizes      Rows of the product of the factors of each bucket
+     * @param remainingFactors CPT factor slots no bucket consumed
+     * @param remainingBuckets Buckets whose results no later bucket consumed
+     * @param answered         Whether the remaining factors answer the query without being joined
+     * @param peakTableSize    Rows of the largest table the plan may build
+     * @param peakScope        Variables of that table
+     */
+    QueryPlan(int[] factorVariables, int[] bucketVariables, int[][] bucketInputs, int[][] bucketJoins,
+              long[] bucketSizes, int[] remainingFactors, int[] remainingBuckets, boolean answered, long peakTableSize, int[] peakScope) {
+        this.factorVariables = factorVariables;
+        this.bucketVariables = bucketVariables;
+        this.bucketInputs = bucketInputs;
+        this.bucketJoins = bucketJoins;
+        this.subtreeSizes = new long[bucketSizes.length];
+        for (int bucket = 0; bucket < bucketSizes.length; bucket++) {
+            long size = bucketSizes[bucket];
+            for (int slot : bucketInputs[bucket]) {
+                if (slot >= factorVariables.length) {
+                    size = size > Long.MAX_VALUE - subtreeSizes[slot - factorVariables.length]
+                            ? Long.MAX_VALUE : size + subtreeSizes[slot - factorVariables.length];
+                }
+            }
+            subtreeSizes[bucket] = size;
+        }
+        this.remainingFactors = remainingFactors;
+        this.remainingBuckets = remainingBuckets;
+        this.answered = answered;
+        this.peakTableSize = peakTableSize;
+        this.peakScope = peakScope;
+    }
+
+    /**
+     * Retrieves the node ids of the CPT factors used. The array must not be modified.
+     * @return The node id of the factor in each slot from 0
+     */
+    int[] getFactorVariables() {
+        return factorVariables;
+    }
+
+    /**
+     * Retrieves the number of buckets.
+     * @return The number of variables summed out
+     */
+    int getBucketCount() {
+        return bucketVariables.length;
+    }
+
+    /**
+     * Retrieves the variable a bucket sums out.
+     * @param bucket The index of the bucket
+     * @return The id of the variable
+     */
+    int getBucketVariable(int bucket) {
+        return bucketVariables[bucket];
+    }
+
+    /**
+     * Retrieves the factors a bucket joins. The array must not be modified.
+     * @param bucket The index of the bucket
+     * @return The slots of the factors
+     */
+    int[] getBucketInputs(int bucket) {
+        return bucketInputs[bucket];
+    }
+
+    /**
+     * Retrieves the order of the joins of a bucket. The inputs of a bucket with m factors are numbered 0 to m-1,
+     * in the order of getBucketInputs, and its k-th join creates factor m+k. Each pair of the array names the
+     * two factors of a join; the last pair is joined and summed out in one pass. The array must not be modified.
+     * @param bucket The index of the bucket
+     * @return The 2(m-1) operands of the joins, or null if the factors are joined in sorted order
+     */
+    int[] getBucketJoins(int bucket) {
+        return bucketJoins == null ? null : bucketJoins[bucket];
+    }
+
+    /**
+     * Retrieves the size of the branch of the elimination tree ending at a bucket. The buckets whose results a
+     * bucket joins are its children, so branches that do not contain each other can be eliminated independently.
+     * @param bucket The index of the bucket
+     * @return The rows joined by the bucket and by all buckets below it, capped at Long.MAX_VALUE
+     */
+    long getSubtreeSize(int bucket) {
+        return subtreeSizes[bucket];
+    }
+
+    /**
+     * Retrieves the CPT factors no bucket consumed. The array must not be modified.
+     * @return Their slots
+     */
+    int[] getRemainingFactors() {
+        return remainingFactors;
+    }
+
+    /**
+     * Retrieves the buckets whose results no later bucket consumed. The array must not be modified.
+     * @return Their indices, in order
+     */
+    int[] getRemainingBuckets() {
+        return remainingBuckets;
+    }
+
+    /**
+     * Checks whether the remaining factors answer the query as they are.
+     * @return true if they are neither joined nor normalized
+     */
+    boolean isAnswered() {
+        return answered;
+    }
+
+    /**
+     * Retrieves the size of the largest table the plan may build: the product of all the factors of a bucket,
+     * or of the factors left at the end. Observed variables do not count, since joins drop them.
+     * @return The number of rows, capped at Long.MAX_VALUE
+     */
+    long getPeakTableSize() {
+        return peakTableSize;
+    }
+
+    /**
+     * Retrieves the variables of the largest table the plan may build. The array must not be modified.
+     * @return Their ids
+     */
+    int[] getPeakScope() {
+        return peakScope;
+    }
+}
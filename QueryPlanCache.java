@@ -0,0 +1,63 @@
+import java.util.List;
+
+
+/**
+ * A least recently used cache of the query plans of a network.
+ * Plans are keyed by the query variable, the evidence variables and the elimination order, so queries that
+ * differ only in the observed outcomes share one.
+ */
+public class QueryPlanCache extends LruCache<QueryPlanCache.Key, QueryPlan> {
+
+    /**
+     * The shape of a query, which decides its plan. The order is either chosen by a heuristic or given
+     * explicitly, and exactly one of the two is set, so a heuristic's key never equals an explicit order's.
+     * @param queryVariable     The id of the query variable
+     * @param evidenceVariables The ids of the evidence variables, sorted
+     * @param heuristic         The heuristic choosing the order, or null if the order is given
+     * @param explicitOrder     The ids of the hidden variables as given, or null if a heuristic chooses them
+     */
+    public record Key(int queryVariable, List<Integer> evidenceVariables, EliminationOrderHeuristic heuristic,
+                      List<Integer> explicitOrder) {
+
+        /**
+         * Checks that exactly one order is set, and copies the lists so the key cannot change.
+         */
+        public Key {
+            if ((heuristic == null) == (explicitOrder == null)) {
+                throw new IllegalArgumentException("A plan key needs either a heuristic or an explicit order");
+            }
+            evidenceVariables = List.copyOf(evidenceVariables);
+            explicitOrder = explicitOrder == null ? null : List.copyOf(explicitOrder);
+        }
+
+        /**
+         * Builds the key of a query whose order a heuristic chooses.
+         * @param queryVariable     The id of the query variable
+         * @param evidenceVariables The ids of the evidence variables, sorted
+         * @param heuristic         The heuristic
+         * @return The key
+         */
+        public static Key of(int queryVariable, List<Integer> evidenceVariables, EliminationOrderHeuristic heuristic) {
+            return new Key(queryVariable, evidenceVariables, heuristic, null);
+        }
+
+        /**
+         * Builds the key of a query that gives its order.
+         * @param queryVariable     The id of the query variable
+         * @param evidenceVariables The ids of the evidence variables, sorted
+         * @param explicitOrder     The ids of the hidden variables as given
+         * @return The key
+         */
+        public static Key of(int queryVariable, List<Integer> evidenceVariables, List<Integer> explicitOrder) {
+            return new Key(queryVariable, evidenceVariables, null, explicitOrder);
+        }
+    }
+
+    /**
+     * Constructs an empty cache.
+     * @param capacity The number of plans kept; the least recently used one is dropped beyond it
+     */
+    public QueryPlanCache(int capacity) {
+        super(capacity);
+    }
+}
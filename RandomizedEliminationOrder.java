@@ -0,0 +1,41 @@
+import java.util.Random;
+
+
+/**
+ * Runs a greedy heuristic several times with random tie breaks and keeps the order that creates the
+ * smallest tables. The first run breaks ties by id, so the result is never worse than the plain greedy order.
+ */
+public class RandomizedEliminationOrder implements EliminationOrderHeuristic {
+    private GreedyEliminationOrder.Score score;     // What each greedy step minimizes
+    private int restarts;                           // Number of randomized runs after the first one
+    private long seed;                              // Seed of the tie breaks, so orders are reproducible
+
+    /**
+     * Constructs a randomized restart heuristic.
+     * @param score    What each greedy step minimizes
+     * @param restarts Number of randomized runs after the first one
+     * @param seed     Seed of the tie breaks
+     */
+    public RandomizedEliminationOrder(GreedyEliminationOrder.Score score, int restarts, long seed) {
+        this.score = score;
+        this.restarts = restarts;
+        this.seed = seed;
+    }
+
+    @Override
+    public int[] order(MoralGraph graph, int[] variables) {
+        int[] best = new GreedyEliminationOrder(score).order(graph, variables);
+        long bestCost = graph.cost(best);
+
+        GreedyEliminationOrder randomized = new GreedyEliminationOrder(score, new Random(seed));
+        for (int run = 0; run < restarts; run++) {
+            int[] order = randomized.order(graph, variables);
+            long cost = graph.cost(order);
+            if (cost < bestCost) {
+                best = order;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,44 @@
+import java.util.BitSet;
+
+
+/**
+ * Finds the nodes whose CPTs a query does not need, in a single pass over the network that is linear in its
+ * nodes and edges. Nodes are referred to by id and sets of them are bit sets.
+ * A hidden node is irrelevant when it is barren, meaning neither the query, evidence, nor an ancestor of either,
+ * so that summing it out leaves only ones; or when it is d-separated from the query given the evidence, so that
+ * its CPT only scales the result, which normalization undoes. The CPTs of the children of an irrelevant node
+ * are then not needed either.
+ */
+final class RelevancePruning {
+
+    private RelevancePruning() {
+    }
+
+    /**
+     * Finds the nodes whose CPTs can be left out of a query.
+     * @param network  The network
+     * @param query    The id of the query node
+     * @param evidence The ids of the evidence nodes
+     * @return The ids of the irrelevant hidden nodes and of their children
+     */
+    static BitSet irrelevantNodes(BayesianNetwork network, int query, BitSet evidence) {
+        NetworkGraph graph = network.getGraph();
+        int[] childOffsets = graph.getChildOffsets();
+        int[] children = graph.getChildren();
+        BitSet roots = (BitSet) evidence.clone();
+        roots.set(query);
+        BitSet relevant = network.getAncestry().ancestralSet(roots);
+        relevant.and(BayesBall.dConnectedNodes(network, query, evidence));
+
+        BitSet irrelevant = new BitSet(graph.size());
+        for (int id = 0; id < graph.size(); id++) {
+            if (id != query && !evidence.get(id) && !relevant.get(id)) {
+                irrelevant.set(id);
+                for (int i = childOffsets[id]; i < childOffsets[id + 1]; i++) {
+                    irrelevant.set(children[i]);
+                }
+            }
+        }
+        return irrelevant;
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Interns the variable names and outcomes of a Bayesian Network as dense integers.
+ * Every variable gets an id in the order it was declared, and every outcome of a variable gets an index
+ * in the order of its OUTCOME elements, so inference can work with ints instead of strings.
+ */
+public class SymbolTable {
+    private Map<String, Integer> variableIds;           // Maps each variable name to its id
+    private List<String> variableNames;                 // Variable names indexed by id
+    private List<List<String>> outcomeNames;            // Outcomes of each variable indexed by id, then by outcome index
+    private List<Map<String, Integer>> outcomeIndices;  // Maps each outcome of a variable to its index
+    private List<int[]> allOutcomes;                    // Shared {0, 1, ..., k-1} outcome arrays of each variable
+
+    /**
+     * Constructs an empty symbol table.
+     */
+    public SymbolTable() {
+        this.variableIds = new HashMap<>();
+        this.variableNames = new ArrayList<>();
+        this.outcomeNames = new ArrayList<>();
+        this.outcomeIndices = new ArrayList<>();
+        this.allOutcomes = new ArrayList<>();
+    }
+
+    /**
+     * Interns a variable and its outcomes.
+     * @param name     The name of the variable.
+     * @param outcomes The outcomes of the variable, in declaration order.
+     * @return         The id assigned to the variable.
+     */
+    public int addVariable(String name, List<String> outcomes) {
+        int id = variableNames.size();
+        variableIds.put(name, id);
+        variableNames.add(name);
+        outcomeNames.add(new ArrayList<>(outcomes));
+
+        Map<String, Integer> indices = new HashMap<>();
+        int[] all = new int[outcomes.size()];
+        for (int i = 0; i < outcomes.size(); i++) {
+            indices.put(outcomes.get(i), i);
+            all[i] = i;
+        }
+        outcomeIndices.add(indices);
+        allOutcomes.add(all);
+        return id;
+    }
+
+    /**
+     * Retrieves the id of a variable.
+     * @param name The name of the variable.
+     * @return     The id of the variable, or -1 if it is unknown.
+     */
+    public int getVariableId(String name) {
+        Integer id = variableIds.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Retrieves the name of a variable.
+     * @param variable The id of the variable.
+     * @return         The name of the variable.
+     */
+    public String getVariableName(int variable) {
+        return variableNames.get(variable);
+    }
+
+    /**
+     * Retrieves the index of an outcome of a variable.
+     * @param variable The id of the variable.
+     * @param outcome  The name of the outcome.
+     * @return         The index of the outcome, or -1 if the variable has no such outcome.
+     */
+    public int getOutcomeIndex(int variable, String outcome) {
+        Integer index = outcomeIndices.get(variable).get(outcome);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Retrieves the name of an outcome of a variable.
+     * @param variable The id of the variable.
+     * @param outcome  The index of the outcome.
+     * @return         The name of the outcome.
+     */
+    public String getOutcomeName(int variable, int outcome) {
+        return outcomeNames.get(variable).get(outcome);
+    }
+
+    /**
+     * Retrieves the indices of all outcomes of a variable.
+     * The returned array is shared and must not be modified.
+     * @param variable The id of the variable.
+     * @return         The array {0, 1, ..., k-1} where k is the number of outcomes.
+     */
+    public int[] getAllOutcomes(int variable) {
+        return allOutcomes.get(variable);
+    }
+
+    /**
+     * Retrieves the number of outcomes of a variable.
+     * @param variable The id of the variable.
+     * @return         The number of outcomes.
+     */
+    public int getCardinality(int variable) {
+        return outcomeNames.get(variable).size();
+    }
+
+    /**
+     * Retrieves the number of interned variables.
+     * @return The number of variables.
+     */
+    public int size() {
+        return variableNames.size();
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Structured tracing of the inference steps.
+ * Every step reports a typed event with a subject (a factor label, a variable or node name) and a number
+ * (a table size, an operation count). Events below the level chosen with -Dtrace=off|info|debug at startup
+ * are dropped by a check the JIT compiler folds away, so tracing costs nothing while it is off. An unknown level
+ * turns tracing off rather than failing every traced operation.
+ * Events go to a pluggable sink: by default they are printed, and a RingBuffer keeps the latest ones in memory.
+ */
+public final class Trace {
+
+    /**
+     * How much is traced: INFO reports queries and pruning, DEBUG also every factor operation.
+     */
+    public enum Level { OFF, INFO, DEBUG }
+
+    /**
+     * The kinds of traced events, with what their subject and value hold.
+     */
+    public enum Event {
+        QUERY_RECEIVED,         // The query text, 0
+        NODE_PRUNED,            // The name of a node left out as irrelevant, 0
+        BUDGET_CHECKED,         // How the query was fitted into the memory budget, the rows of its largest table
+        INDEPENDENCE_CHECKED,   // "A-B" for the two nodes checked, 1 if independent and 0 otherwise
+        INITIAL_FACTOR,         // The label of a factor the elimination starts from, its table size
+        FACTOR_CREATED,         // The label of a joined factor, its table size
+        VARIABLE_ELIMINATED,    // The name of the eliminated variable, the additions it took
+        FACTOR_NORMALIZED       // The label of the normalized factor, the additions it took
+    }
+
+    /**
+     * Receives the traced events. Queries may run on several threads, so a sink must be thread-safe.
+     */
+    public interface Sink {
+        /**
+         * Records an event.
+         * @param event   The kind of event
+         * @param subject What the event is about
+         * @param value   The number reported with the event
+         */
+        void record(Event event, String subject, long value);
+    }
+
+    private static final Level LEVEL = parseLevel(System.getProperty("trace", "off"));
+    private static volatile Sink sink = (event, subject, value) -> System.out.println(event + " " + subject + " " + value);
+
+    private Trace() {
+    }
+
+    /**
+     * Reads the level named at startup.
+     * @param name The name of the level, in any case
+     * @return The level, or OFF if the name is not one
+     */
+    private static Level parseLevel(String name) {
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown trace level " + name + ", tracing is off");
+            return Level.OFF;
+        }
+    }
+
+    /**
+     * Checks whether events of a level are traced. Callers that need work to build an event's subject
+     * check this first.
+     * @param level The level of the event
+     * @return true if the event would be recorded
+     */
+    public static boolean isEnabled(Level level) {
+        return level != Level.OFF && level.compareTo(LEVEL) <= 0;
+    }
+
+    /**
+     * Sends an event to the sink if its level is traced.
+     * @param level   The level of the event
+     * @param event   The kind of event
+     * @param subject What the event is about
+     * @param value   The number reported with the event
+     */
+    public static void event(Level level, Event event, String subject, long value) {
+        if (isEnabled(level)) {
+            sink.record(event, subject, value);
+        }
+    }
+
+    /**
+     * Replaces the sink that receives the traced events.
+     * @param newSink The new sink
+     * @return The sink replaced, so that it can be put back
+     */
+    public static Sink setSink(Sink newSink) {
+        Sink oldSink = sink;
+        sink = newSink;
+        return oldSink;
+    }
+
+    /**
+     * A sink keeping the latest events in preallocated arrays, overwriting the oldest ones when full.
+     */
+    public static class RingBuffer implements Sink {
+        private final Event[] events;       // Kinds of the retained events
+        private final String[] subjects;    // Subjects of the retained events
+        private final long[] values;        // Values of the retained events
+        private long recorded;              // Number of events recorded so far
+
+        /**
+         * Constructs a ring buffer.
+         * @param capacity The number of events it retains
+         */
+        public RingBuffer(int capacity) {
+            this.events = new Event[capacity];
+            this.subjects = new String[capacity];
+            this.values = new long[capacity];
+        }
+
+        @Override
+        public synchronized void record(Event event, String subject, long value) {
+            int slot = (int) (recorded++ % events.length);
+            events[slot] = event;
+            subjects[slot] = subject;
+            values[slot] = value;
+        }
+
+        /**
+         * Formats the retained events, oldest first.
+         * @return One line per event
+         */
+        public synchronized String[] dump() {
+            int count = (int) Math.min(recorded, events.length);
+            String[] lines = new String[count];
+            for (int i = 0; i < count; i++) {
+                int slot = (int) ((recorded - count + i) % events.length);
+                lines[i] = events[slot] + " " + subjects[slot] + " " + values[slot];
+            }
+            return lines;
+        }
+
+        /**
+         * Retrieves the number of events recorded, including those already overwritten.
+         * @return The number of events
+         */
+        public synchronized long getRecorded() {
+            return recorded;
+        }
+    }
+}
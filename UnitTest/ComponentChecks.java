@@ -0,0 +1,412 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks of the parts of the engines that a query line of Tests.io cannot reach. The TestRunner runs them after
+ * the test inputs, from the same directory, so the networks are found by file name. Each check throws an
+ * AssertionError describing the first expectation it finds broken.
+ */
+public class ComponentChecks {
+
+    /**
+     * A check, which may parse networks and so throw any exception.
+     */
+    public interface Check {
+        void run() throws Exception;
+    }
+
+    /**
+     * Lists the checks.
+     * @return The checks by name, in the order they run
+     */
+    public static Map<String, Check> all() {
+        Map<String, Check> checks = new LinkedHashMap<>();
+        checks.put("trace ring buffer", ComponentChecks::traceRingBuffer);
+        checks.put("junction tree posteriors", ComponentChecks::junctionTreePosteriors);
+        checks.put("junction tree evidence updates", ComponentChecks::junctionTreeEvidenceUpdates);
+        checks.put("memory budget outcomes", ComponentChecks::memoryBudgetOutcomes);
+        checks.put("cutset conditioning cache", ComponentChecks::cutsetConditioningCache);
+        checks.put("parallel branch elimination", ComponentChecks::parallelBranchElimination);
+        checks.put("sparse factor storage", ComponentChecks::sparseFactorStorage);
+        checks.put("least recently used caches", ComponentChecks::leastRecentlyUsedCaches);
+        checks.put("ancestral sets", ComponentChecks::ancestralSets);
+        return checks;
+    }
+
+    /**
+     * Fails a check unless a condition holds.
+     * @param condition The condition
+     * @param message   What was expected, reported if the condition does not hold
+     */
+    private static void expect(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * Answers a query with variable elimination, the heuristic choosing the order.
+     * @param bn       The network
+     * @param query    The query, in the format Node=Value
+     * @param evidence The evidence, in the format Node=Value
+     * @return The probability, to the five decimals of the answer
+     */
+    private static double eliminate(BayesianNetwork bn, String query, String[] evidence) {
+        String answer = new VariableElimination(bn, query, EliminationOrderHeuristic.DEFAULT, evidence).getFinalAnswer();
+        return Double.parseDouble(answer.split(",")[0]);
+    }
+
+    /**
+     * Compares every marginal of one junction tree calibration with the variable elimination answer for the
+     * same query, on each test network without evidence and with the evidence of one of its test inputs.
+     */
+    private static void junctionTreePosteriors() throws Exception {
+        String[][] cases = {
+                {"alarm_net.xml", "J=T,M=T"}, {"big_net.xml", "C3=T,B2=F,C2=v3"}, {"net3.xml", "F=nice"},
+                {"net4.xml", "G=high,L=F"}, {"net5.xml", "F=never,B=F"}, {"net7.xml", "E=two,F=two"}};
+        for (String[] testCase : cases) {
+            BayesianNetwork bn = XMLParser.parse(testCase[0]);
+            SymbolTable symbols = bn.getSymbolTable();
+            for (String[] evidence : new String[][]{new String[0], testCase[1].split(",")}) {
+                Map<String, double[]> posteriors = new JunctionTreeInference(bn, evidence).getAllPosteriors();
+                expect(posteriors.size() == symbols.size() - evidence.length,
+                        testCase[0] + ": one posterior per unobserved node, got " + posteriors.size());
+                for (Map.Entry<String, double[]> posterior : posteriors.entrySet()) {
+                    int variable = symbols.getVariableId(posterior.getKey());
+                    for (int outcome = 0; outcome < posterior.getValue().length; outcome++) {
+                        String query = posterior.getKey() + "=" + symbols.getOutcomeName(variable, outcome);
+                        double expected = eliminate(bn, query, evidence);
+                        expect(Math.abs(posterior.getValue()[outcome] - expected) < 1e-5, testCase[0] + ": P(" + query
+                                + "|" + String.join(",", evidence) + ") is " + expected + ", got " + posterior.getValue()[outcome]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets, changes and retracts evidence in one junction tree session, and after every step compares each
+     * posterior with that of a junction tree built afresh for the evidence at that point.
+     */
+    private static void junctionTreeEvidenceUpdates() throws Exception {
+        String[][] cases = {
+                {"alarm_net.xml", "J=T", "M=T", "J=F", "-M", "B=T", "-J", "-B"},
+                {"big_net.xml", "C3=T", "B2=F", "C2=v3", "B2=T", "-C3", "A1=T", "-C2", "-B2", "-A1"},
+                {"net7.xml", "E=two", "F=two", "-E", "H=yes", "F=one", "-F", "-H"}};
+        for (String[] testCase : cases) {
+            BayesianNetwork bn = XMLParser.parse(testCase[0]);
+            JunctionTreeInference session = new JunctionTreeInference(bn, new String[0]);
+            Map<String, String> evidence = new LinkedHashMap<>();
+            for (int step = 1; step < testCase.length; step++) {
+                if (testCase[step].startsWith("-")) {
+                    session.removeEvidence(testCase[step].substring(1));
+                    evidence.remove(testCase[step].substring(1));
+                } else {
+                    String[] observation = testCase[step].split("=");
+                    session.setEvidence(observation[0], observation[1]);
+                    evidence.put(observation[0], observation[1]);
+                }
+                String[] current = evidence.entrySet().stream().map(e -> e.getKey() + "=" + e.getValue()).toArray(String[]::new);
+                Map<String, double[]> expected = new JunctionTreeInference(bn, current).getAllPosteriors();
+                Map<String, double[]> actual = session.getAllPosteriors();
+                expect(actual.keySet().equals(expected.keySet()), testCase[0] + " after " + testCase[step]
+                        + ": posteriors of " + expected.keySet() + ", got " + actual.keySet());
+                for (Map.Entry<String, double[]> posterior : expected.entrySet()) {
+                    double[] values = actual.get(posterior.getKey());
+                    for (int outcome = 0; outcome < values.length; outcome++) {
+                        expect(Math.abs(values[outcome] - posterior.getValue()[outcome]) < 1e-9, testCase[0] + " after "
+                                + testCase[step] + ": P(" + posterior.getKey() + ") differs from a fresh junction tree");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a query of big_net whose given order builds a table of 288 rows, while the heuristics need 96, under
+     * budgets and policies leading to each outcome, and checks the startup values falling back to no limit.
+     */
+    private static void memoryBudgetOutcomes() throws Exception {
+        String[] order = "D1-A1-A2-A3-B0-B1-B2-B3-C2-C3".split("-");
+        Object[][] cases = {
+                {288L, MemoryBudget.Policy.REJECT, MemoryBudget.Outcome.WITHIN_BUDGET},
+                {100L, MemoryBudget.Policy.REJECT, MemoryBudget.Outcome.REJECTED},
+                {100L, MemoryBudget.Policy.REORDER, MemoryBudget.Outcome.REORDERED},
+                {64L, MemoryBudget.Policy.REORDER, MemoryBudget.Outcome.REJECTED},
+                {16L, MemoryBudget.Policy.CONDITION, MemoryBudget.Outcome.CONDITIONED}};
+        MemoryBudget oldBudget = MemoryBudget.getDefault();
+        try {
+            for (Object[] testCase : cases) {
+                long limit = (Long) testCase[0];
+                MemoryBudget.setDefault(new MemoryBudget(limit, (MemoryBudget.Policy) testCase[1]));
+                VariableElimination ve = new VariableElimination(XMLParser.parse("big_net.xml"), "C1=T", order, new String[0]);
+                String name = limit + " rows, " + testCase[1] + ": ";
+                expect(ve.getBudgetOutcome() == testCase[2], name + testCase[2] + " expected, got " + ve.getBudgetOutcome());
+                String answer = ve.getFinalAnswer();
+                if (testCase[2] == MemoryBudget.Outcome.REJECTED) {
+                    expect(answer.startsWith("Error:"), name + "an error expected, got " + answer);
+                } else {
+                    expect(answer.startsWith("0.53646,"), name + "P(C1=T) = 0.53646 expected, got " + answer);
+                    expect(ve.getPeakTableSize() <= limit, name + "tables within the budget, got " + ve.getPeakTableSize());
+                }
+            }
+        } finally {
+            MemoryBudget.setDefault(oldBudget);
+        }
+
+        expect(MemoryBudget.parse(null, "reorder") == MemoryBudget.UNLIMITED, "no limit unless one is set");
+        expect(MemoryBudget.parse("lots", "reorder") == MemoryBudget.UNLIMITED, "no limit for a malformed size");
+        expect(MemoryBudget.parse("-5", "reorder") == MemoryBudget.UNLIMITED, "no limit for a size below one row");
+        expect(MemoryBudget.parse("1000", "shrink") == MemoryBudget.UNLIMITED, "no limit for an unknown policy");
+        MemoryBudget budget = MemoryBudget.parse(" 1000 ", "Condition");
+        expect(budget.getMaxTableSize() == 1000 && budget.getPolicy() == MemoryBudget.Policy.CONDITION,
+                "a budget of 1000 rows conditioning queries");
+    }
+
+    /**
+     * Conditions a big_net query on a cutset of four variables, whose 24 sub-problems share bucket results through
+     * the cache, and again without the cache, which must not change the answer.
+     */
+    private static void cutsetConditioningCache() throws Exception {
+        BayesianNetwork bn = XMLParser.parse("big_net.xml");
+        CutsetConditioning cached = new CutsetConditioning(bn, "C1=T", new String[0]);
+        expect(cached.getCutset().equals(List.of("B1", "B2", "C3", "C2")), "cutset [B1, B2, C3, C2], got " + cached.getCutset());
+        expect(cached.getCacheMisses() == 20, "20 bucket results cached, got " + cached.getCacheMisses());
+        expect(cached.getCacheHits() >= 58, "at least 58 cached results reused, got " + cached.getCacheHits());
+        expect(cached.getFinalAnswer().equals("0.53646,133,340"), "0.53646,133,340 with the cache, got " + cached.getFinalAnswer());
+
+        CutsetConditioning uncached = new CutsetConditioning(bn, "C1=T", new String[0], 0);
+        expect(uncached.getCacheHits() == 0 && uncached.getCacheMisses() == 0, "no cache lookups with a cache of 0 results");
+        expect(uncached.getFinalAnswer().startsWith("0.53646,"), "0.53646 without the cache, got " + uncached.getFinalAnswer());
+    }
+
+    /**
+     * Answers every outcome of every node of some test networks, without evidence and with that of a test input,
+     * once on one thread and once with every branch of the elimination tree forked as a task, which must give
+     * the same probabilities and counts.
+     */
+    private static void parallelBranchElimination() throws Exception {
+        String[][] cases = {{"alarm_net.xml", "J=T"}, {"big_net.xml", "C3=T,B2=F"}, {"net7.xml", "E=two"}};
+        long oldSize = VariableElimination.getParallelBranchSize();
+        try {
+            for (String[] testCase : cases) {
+                BayesianNetwork bn = XMLParser.parse(testCase[0]);
+                SymbolTable symbols = bn.getSymbolTable();
+                for (String[] evidence : new String[][]{new String[0], testCase[1].split(",")}) {
+                    for (int variable = 0; variable < symbols.size(); variable++) {
+                        for (int outcome = 0; outcome < symbols.getCardinality(variable); outcome++) {
+                            String query = symbols.getVariableName(variable) + "=" + symbols.getOutcomeName(variable, outcome);
+                            VariableElimination.setParallelBranchSize(Long.MAX_VALUE);
+                            String serial = new VariableElimination(bn, query, EliminationOrderHeuristic.DEFAULT, evidence).getFinalAnswer();
+                            VariableElimination.setParallelBranchSize(1);
+                            String parallel = new VariableElimination(bn, query, EliminationOrderHeuristic.DEFAULT, evidence).getFinalAnswer();
+                            expect(parallel.equals(serial), testCase[0] + ": P(" + query + "|" + String.join(",", evidence)
+                                    + ") is " + serial + " on one thread, got " + parallel);
+                        }
+                    }
+                }
+            }
+        } finally {
+            VariableElimination.setParallelBranchSize(oldSize);
+        }
+    }
+
+    /**
+     * Parses the logic gate network twice, with the sparse storage on and off, and checks that its 0/1 CPTs are
+     * only stored sparsely the first time. Then applies evidence to such a CPT and sums a variable out of it, and
+     * answers every query of the network with and without evidence, comparing the sparse and dense results.
+     */
+    private static void sparseFactorStorage() throws Exception {
+        boolean oldStorage = Factor.isSparseStorage();
+        BayesianNetwork sparse;
+        BayesianNetwork dense;
+        try {
+            Factor.setSparseStorage(true);
+            sparse = XMLParser.parse("gate_net.xml");
+            Factor.setSparseStorage(false);
+            dense = XMLParser.parse("gate_net.xml");
+        } finally {
+            Factor.setSparseStorage(oldStorage);
+        }
+        expect(sparse.getNodeByName("X").getFactor().isSparse() && !sparse.getNodeByName("Z").getFactor().isSparse(),
+                "the AND gate is stored sparsely and the noisy sensor densely");
+        expect(!dense.getNodeByName("X").getFactor().isSparse(), "no table is sparse with the sparse storage off");
+
+        SymbolTable symbols = sparse.getSymbolTable();
+        int a = symbols.getVariableId("A");
+        int x = symbols.getVariableId("X");
+        for (boolean observed : new boolean[]{false, true}) {
+            Factor[] gates = {sparse.getNodeByName("X").getFactor().clone(), dense.getNodeByName("X").getFactor().clone()};
+            for (Factor gate : gates) {
+                if (observed) {
+                    gate.filterRows(new int[]{x}, new int[]{symbols.getOutcomeIndex(x, "T")});
+                }
+                expect(gate.isSparse() == (gate == gates[0]), "only the first AND gate is sparse before A is summed out");
+                gate.eliminateFactor(new InferenceContext(symbols.size()), a);
+            }
+            String name = observed ? "P(X=T|A,B)" : "P(X|A,B)";
+            expect(gates[0].getProbabilityTable().equals(gates[1].getProbabilityTable()), name + " summed over A is "
+                    + gates[1].getProbabilityTable() + ", the sparse table gives " + gates[0].getProbabilityTable());
+        }
+
+        for (String[] evidence : new String[][]{new String[0], {"Z=T"}, {"Y=T", "W=F"}}) {
+            for (int variable = 0; variable < symbols.size(); variable++) {
+                for (int outcome = 0; outcome < symbols.getCardinality(variable); outcome++) {
+                    String query = symbols.getVariableName(variable) + "=" + symbols.getOutcomeName(variable, outcome);
+                    String expected = new VariableElimination(dense, query, EliminationOrderHeuristic.DEFAULT, evidence).getFinalAnswer();
+                    String answer = new VariableElimination(sparse, query, EliminationOrderHeuristic.DEFAULT, evidence).getFinalAnswer();
+                    expect(answer.equals(expected), "P(" + query + "|" + String.join(",", evidence) + ") is " + expected
+                            + " with dense tables, got " + answer);
+                }
+            }
+            Map<String, double[]> expected = new JunctionTreeInference(dense, evidence).getAllPosteriors();
+            Map<String, double[]> posteriors = new JunctionTreeInference(sparse, evidence).getAllPosteriors();
+            for (Map.Entry<String, double[]> posterior : expected.entrySet()) {
+                expect(Arrays.equals(posteriors.get(posterior.getKey()), posterior.getValue()), "the junction tree posterior of "
+                        + posterior.getKey() + " given " + String.join(",", evidence) + " is the same with dense tables");
+            }
+        }
+    }
+
+    /**
+     * Repeats independence queries with the pair and the evidence in the other order, asks one sharing a node
+     * and the evidence with an earlier one, and repeats a query with other observed outcomes, on a fresh network,
+     * and counts the hits and misses of its caches. Then fills a small
+     * cache past its capacity and checks that the least recently used entry is the one dropped.
+     */
+    private static void leastRecentlyUsedCaches() throws Exception {
+        BayesianNetwork bn = XMLParser.parse("alarm_net.xml");
+        Node b = bn.getNodeByName("B");
+        Node e = bn.getNodeByName("E");
+        ArrayList<Node> none = new ArrayList<>();
+        ArrayList<Node> jm = new ArrayList<>(List.of(bn.getNodeByName("J"), bn.getNodeByName("M")));
+        ArrayList<Node> mj = new ArrayList<>(List.of(bn.getNodeByName("M"), bn.getNodeByName("J")));
+        IndependenceCache answers = bn.getIndependenceCache();
+        expect(BayesBall.checkIndependence(bn, b, e, none).equals("yes"), "B-E is yes");
+        expect(BayesBall.checkIndependence(bn, e, b, none).equals("yes"), "E-B is yes");
+        expect(answers.getHits() == 1 && answers.getMisses() == 1 && answers.size() == 1,
+                "B-E and E-B share one entry, got " + answers.getHits() + " hits, " + answers.getMisses() + " misses, "
+                        + answers.size() + " entries");
+        expect(BayesBall.checkIndependence(bn, b, e, jm).equals("no"), "B-E|J,M is no");
+        expect(BayesBall.checkIndependence(bn, e, b, mj).equals("no"), "E-B|M,J is no");
+        expect(answers.getHits() == 2 && answers.getMisses() == 2 && answers.size() == 2,
+                "B-E|J,M and E-B|M,J share one entry, got " + answers.getHits() + " hits, " + answers.getMisses()
+                        + " misses, " + answers.size() + " entries");
+        LruCache<BayesBall.Pass, BitSet> passes = bn.getPassCache();
+        expect(BayesBall.checkIndependence(bn, bn.getNodeByName("A"), b, none).equals("no"), "A-B is no");
+        expect(passes.getHits() == 1 && passes.size() == 2,
+                "A-B reads the pass from B kept by B-E, got " + passes.getHits() + " hits, " + passes.size() + " entries");
+
+        QueryPlanCache plans = bn.getPlanCache();
+        new VariableElimination(bn, "B=T", new String[]{"A", "E"}, new String[]{"J=T", "M=T"}).getFinalAnswer();
+        new VariableElimination(bn, "B=F", new String[]{"A", "E"}, new String[]{"J=F", "M=F"}).getFinalAnswer();
+        expect(plans.getHits() == 1 && plans.getMisses() == 1 && plans.size() == 1,
+                "queries differing in the outcomes share one plan, got " + plans.getHits() + " hits, "
+                        + plans.getMisses() + " misses, " + plans.size() + " entries");
+        QueryPlanCache.Key byHeuristic = QueryPlanCache.Key.of(0, List.of(), EliminationOrderHeuristic.MIN_FILL);
+        expect(!byHeuristic.equals(QueryPlanCache.Key.of(0, List.of(), List.of())),
+                "a heuristic's plan key differs from an empty explicit order's");
+        QueryPlanCache.Key byOrder = QueryPlanCache.Key.of(1, List.of(3), new ArrayList<>(List.of(2, 0)));
+        expect(byOrder.equals(QueryPlanCache.Key.of(1, List.of(3), List.of(2, 0))), "explicit orders of the same ids share a plan key");
+        try {
+            new QueryPlanCache.Key(0, List.of(), EliminationOrderHeuristic.MIN_FILL, List.of());
+            throw new AssertionError("a plan key with both a heuristic and an explicit order is rejected");
+        } catch (IllegalArgumentException expected) {
+            // Exactly one order may be set
+        }
+
+        LruCache<Integer, String> cache = new LruCache<>(2);
+        cache.put(1, "one");
+        cache.put(2, "two");
+        expect("one".equals(cache.get(1)), "1 is cached");
+        cache.put(3, "three");
+        expect(cache.size() == 2, "2 entries kept, got " + cache.size());
+        expect(cache.get(2) == null, "2, the least recently used, is dropped");
+        expect("one".equals(cache.get(1)) && "three".equals(cache.get(3)), "1 and 3 are kept");
+        expect(cache.getHits() == 3 && cache.getMisses() == 1,
+                "3 hits and 1 miss, got " + cache.getHits() + " and " + cache.getMisses());
+    }
+
+    /**
+     * Computes the ancestral set of every pair of nodes of each test network, both from the closure and by
+     * walking the parent edges, and compares them with the ancestors found by following the parents of the nodes.
+     */
+    private static void ancestralSets() throws Exception {
+        String[] files = {"alarm_net.xml", "big_net.xml", "net3.xml", "net4.xml", "net5.xml", "net6.xml", "net7.xml",
+                "net8.xml", "net9.xml", "net10.xml"};
+        for (String file : files) {
+            BayesianNetwork bn = XMLParser.parse(file);
+            NetworkGraph graph = bn.getGraph();
+            Ancestry closure = new Ancestry(graph, true);
+            Ancestry walk = new Ancestry(graph, false);
+            Node[] nodes = new Node[graph.size()];
+            for (Node node : bn.getNodes()) {
+                nodes[node.getNodeId()] = node;
+            }
+            for (Node a : nodes) {
+                for (Node b : nodes) {
+                    BitSet pair = new BitSet();
+                    pair.set(a.getNodeId());
+                    pair.set(b.getNodeId());
+                    BitSet expected = new BitSet();
+                    addAncestors(a, expected);
+                    addAncestors(b, expected);
+                    String name = file + ": the ancestral set of " + a.getNodeName() + "," + b.getNodeName() + " is " + expected;
+                    expect(closure.ancestralSet(pair).equals(expected), name + ", the closure gives " + closure.ancestralSet(pair));
+                    expect(walk.ancestralSet(pair).equals(expected), name + ", the walk gives " + walk.ancestralSet(pair));
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a node and its ancestors to a set, following the parents of the nodes rather than the graph.
+     * @param node      The node
+     * @param ancestral The ids of the nodes added so far
+     */
+    private static void addAncestors(Node node, BitSet ancestral) {
+        if (!ancestral.get(node.getNodeId())) {
+            ancestral.set(node.getNodeId());
+            for (Node parent : node.getParents()) {
+                addAncestors(parent, ancestral);
+            }
+        }
+    }
+
+    /**
+     * Captures the events of a query in a ring buffer, which only receives events at the level chosen with
+     * -Dtrace, and checks that a full buffer keeps the latest events, oldest first.
+     */
+    private static void traceRingBuffer() throws Exception {
+        BayesianNetwork bn = XMLParser.parse("alarm_net.xml");
+        Trace.RingBuffer buffer = new Trace.RingBuffer(4);
+        Trace.Sink oldSink = Trace.setSink(buffer);
+        try {
+            new VariableElimination(bn, "B=T", new String[]{"A", "E"}, new String[]{"J=T", "M=T"}).getFinalAnswer();
+        } finally {
+            Trace.setSink(oldSink);
+        }
+        if (Trace.isEnabled(Trace.Level.INFO)) {
+            expect(buffer.getRecorded() > 0, "the query traces events at level INFO");
+            String[] lines = buffer.dump();
+            expect(lines[lines.length - 1].startsWith("FACTOR_NORMALIZED") || !Trace.isEnabled(Trace.Level.DEBUG),
+                    "the last event at level DEBUG is the normalization, got " + lines[lines.length - 1]);
+        } else {
+            expect(buffer.getRecorded() == 0, "no events are traced while tracing is off");
+        }
+
+        Trace.RingBuffer ring = new Trace.RingBuffer(3);
+        for (int i = 0; i < 5; i++) {
+            ring.record(Trace.Event.NODE_PRUNED, "N" + i, i);
+        }
+        String[] lines = ring.dump();
+        expect(ring.getRecorded() == 5, "5 events recorded, got " + ring.getRecorded());
+        expect(lines.length == 3, "3 events retained, got " + lines.length);
+        expect(lines[0].equals("NODE_PRUNED N2 2") && lines[2].equals("NODE_PRUNED N4 4"),
+                "the latest events oldest first, got " + String.join(", ", lines));
+    }
+}
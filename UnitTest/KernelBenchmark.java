@@ -0,0 +1,143 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times the factor kernels against the row-by-row walk (-Dfactor.kernels=scalar) on the test networks
+ * and on large synthetic factors. Run from the UnitTest directory, like the TestRunner.
+ * Both modes are warmed up before anything is timed, and the rounds alternate which mode runs first,
+ * so neither mode is charged for the JIT compiling the code they share.
+ */
+public class KernelBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        // Every variable elimination query of the test file, on networks parsed once
+        List<BayesianNetwork> networks = new ArrayList<>();
+        List<String> queries = new ArrayList<>();
+        for (TestCase testCase : TestParser.parseTestFile("Tests.io")) {
+            BayesianNetwork bn = XMLParser.parse(testCase.xmlFileName);
+            for (String query : testCase.queries) {
+                String[] splitQuery = query.split(" ");
+                if (query.startsWith("P(") && (splitQuery.length < 2 || isEliminationOrder(bn, splitQuery[1]))) {
+                    networks.add(bn);
+                    queries.add(query);
+                }
+            }
+        }
+        System.out.println("Test networks, " + queries.size() + " queries x 200:");
+        compare("queries", () -> {
+            for (int repeat = 0; repeat < 200; repeat++) {
+                for (int i = 0; i < queries.size(); i++) {
+                    runQuery(networks.get(i), queries.get(i));
+                }
+            }
+        });
+
+        // Two synthetic factors sharing a variable, joined while that variable is eliminated
+        for (int cardinality : new int[]{8, 16, 24}) {
+            SymbolTable symbols = new SymbolTable();
+            for (int v = 0; v < 5; v++) {
+                List<String> outcomes = new ArrayList<>();
+                for (int d = 0; d < cardinality; d++) {
+                    outcomes.add("s" + d);
+                }
+                symbols.addVariable("X" + v, outcomes);
+            }
+            Factor factorA = randomFactor(symbols, 1, new int[]{0, 1, 2});
+            Factor factorB = randomFactor(symbols, 2, new int[]{2, 3, 4});
+            Factor product = Factor.joinFactors(new InferenceContext(2), factorA, factorB);
+            System.out.println("Synthetic factors, " + product.getTableSize() + " product rows:");
+            compare("join+eliminate", () -> Factor.joinAndEliminate(new InferenceContext(2), factorA, factorB, 2));
+            compare("sum out+normalize", () -> {
+                Factor copy = product.clone();
+                InferenceContext context = new InferenceContext(2);
+                copy.eliminateFactor(context, 2);
+                copy.normalize(context);
+            });
+        }
+        FactorKernels.enabled = true;
+    }
+
+    /**
+     * Times a task with the kernels and with the row-by-row walk, and prints the best time of each.
+     * @param name The name of the task
+     * @param task The task
+     */
+    private static void compare(String name, Runnable task) {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (boolean enabled : new boolean[]{false, true}) {
+                FactorKernels.enabled = enabled;
+                task.run();
+            }
+        }
+        long[] best = {Long.MAX_VALUE, Long.MAX_VALUE};     // Best time without and with the kernels
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int turn = 0; turn < 2; turn++) {
+                int mode = (round + turn) % 2;              // Each mode goes first every other round
+                FactorKernels.enabled = mode == 1;
+                long start = System.nanoTime();
+                task.run();
+                best[mode] = Math.min(best[mode], System.nanoTime() - start);
+            }
+        }
+        System.out.printf("  %-18s scalar %9.2f ms  kernels %9.2f ms  (%.2fx)%n", name, best[0] / 1e6, best[1] / 1e6,
+                (double) best[0] / best[1]);
+    }
+
+    /**
+     * Checks whether the second part of a query line is an elimination order, rather than the name of a heuristic,
+     * of another engine or of a heuristic that does not exist.
+     * @param bn    The network
+     * @param order The second part of the query line
+     * @return true if it lists nodes of the network
+     */
+    private static boolean isEliminationOrder(BayesianNetwork bn, String order) {
+        for (String name : order.split("-")) {
+            if (bn.getNodeByName(name) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs a variable elimination query written as in the test file, with the default heuristic choosing the
+     * order when the query gives none, as Main does.
+     * @param bn    The network
+     * @param query The query, e.g. "P(A=T|B=F) C-D"
+     */
+    private static void runQuery(BayesianNetwork bn, String query) {
+        String[] splitQuery = query.split(" ");
+        String[] parts = splitQuery[0].replace("P(", "").replace(")", "").split("\\|");
+        String[] evidence = parts.length == 2 ? parts[1].split(",") : new String[0];
+        if (splitQuery.length < 2) {
+            new VariableElimination(bn, parts[0], EliminationOrderHeuristic.DEFAULT, evidence).getFinalAnswer();
+        } else {
+            new VariableElimination(bn, parts[0], splitQuery[1].split("-"), evidence).getFinalAnswer();
+        }
+    }
+
+    /**
+     * Builds a dense factor with random positive probabilities.
+     * @param symbols   The symbol table of the variables
+     * @param factorId  The id of the factor
+     * @param variables The ids of the variables
+     * @return The factor
+     */
+    private static Factor randomFactor(SymbolTable symbols, int factorId, int[] variables) {
+        int[][] outcomes = new int[variables.length][];
+        int size = 1;
+        for (int i = 0; i < variables.length; i++) {
+            outcomes[i] = symbols.getAllOutcomes(variables[i]);
+            size *= outcomes[i].length;
+        }
+        double[] values = new double[size];
+        Random random = new Random(42);
+        for (int i = 0; i < size; i++) {
+            values[i] = 0.01 + random.nextDouble();
+        }
+        return new Factor(symbols, factorId, variables, outcomes, values);
+    }
+}
@@ -0,0 +1,13 @@
+import java.util.List;
+
+public class TestCase {
+    String xmlFileName;
+    List<String> queries;
+    List<String> expectedOutputs;
+
+    public TestCase(String xmlFileName, List<String> queries, List<String> expectedOutputs) {
+        this.xmlFileName = xmlFileName;
+        this.queries = queries;
+        this.expectedOutputs = expectedOutputs;
+    }
+}
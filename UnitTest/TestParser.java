@@ -33,15 +33,3 @@ public class TestParser {
         return testCases;
     }
 }
-
-class TestCase {
-    String xmlFileName;
-    List<String> queries;
-    List<String> expectedOutputs;
-
-    public TestCase(String xmlFileName, List<String> queries, List<String> expectedOutputs) {
-        this.xmlFileName = xmlFileName;
-        this.queries = queries;
-        this.expectedOutputs = expectedOutputs;
-    }
-}
@@ -3,6 +3,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class TestRunner {
     public static void main(String[] args) {
@@ -46,10 +47,27 @@ public class TestRunner {
                     testNumber++;
                 }
 
+                // Run the checks that a query line cannot express
+                List<String> notPassedChecks = new ArrayList<>();
+                for (Map.Entry<String, ComponentChecks.Check> check : ComponentChecks.all().entrySet()) {
+                    writer.write("# Check " + check.getKey() + "\n");
+                    try {
+                        check.getValue().run();
+                        writer.write("Result: Check Passed.\n");
+                    } catch (Exception | AssertionError e) {
+                        writer.write("Fail\n");
+                        writer.write("Error: " + e + "\n");
+                        writer.write("Result: Check Failed.\n");
+                        notPassedChecks.add(check.getKey());
+                    }
+                    writer.write("\n");
+                }
+
                 writer.write("FINAL STATISTICS\n");
                 writer.write("Passed by input numbers: " + passedInputs + "\n");
                 writer.write("Not passed: " + notPassedCount + "\n");
                 writer.write("Not passed input numbers: " + notPassedInputs + "\n");
+                writer.write("Not passed checks: " + notPassedChecks + "\n");
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
@@ -76,8 +94,9 @@ public class TestRunner {
             String actualOutput = actual.get(i).replaceAll("[\\[\\]]", "").trim();
             String expectedOutput = expected.get(i).replaceAll("[\\[\\]]", "").trim();
 
-            if (expectedOutput.equalsIgnoreCase("yes") || expectedOutput.equalsIgnoreCase("no")) {
-                // Handle yes/no output comparison
+            if (expectedOutput.equalsIgnoreCase("yes") || expectedOutput.equalsIgnoreCase("no")
+                    || expectedOutput.startsWith("Error:")) {
+                // Handle yes/no and error message comparison
                 if (!actualOutput.equalsIgnoreCase(expectedOutput)) {
                     pass = false;
                     writer.write("Expected: " + expectedOutput + "\n");
@@ -150,17 +169,17 @@ public class TestRunner {
                 // No evidence provided
                 String queryNode = parts[0];
                 String[] evidence = new String[0];
-                String[] hiddenVariables = new String[0]; // No hidden variables
 
-                VariableElimination ve = new VariableElimination(bn, queryNode, hiddenVariables, evidence);
+                // No order given, so the engine chooses one
+                VariableElimination ve = new VariableElimination(bn, queryNode, EliminationOrderHeuristic.DEFAULT, evidence);
                 return ve.getFinalAnswer();
             } else if (parts.length == 2) {
                 // Evidence is provided
                 String queryNode = parts[0];
                 String[] evidence = parts[1].split(",");
-                String[] hiddenVariables = new String[0]; // No hidden variables
 
-                VariableElimination ve = new VariableElimination(bn, queryNode, hiddenVariables, evidence);
+                // No order given, so the engine chooses one
+                VariableElimination ve = new VariableElimination(bn, queryNode, EliminationOrderHeuristic.DEFAULT, evidence);
                 return ve.getFinalAnswer();
             } else {
                 return "Error: Probability query part is missing evidence.";
@@ -170,15 +189,31 @@ public class TestRunner {
         // Original logic for when elimination order is provided
         String probabilityPart = splitQuery[0].replace("P(", "").replace(")", "");
         String eliminationOrderStr = splitQuery[1];
+        EliminationOrderHeuristic heuristic = EliminationOrderHeuristic.forName(eliminationOrderStr);  // A heuristic may be named instead
 
         String[] parts = probabilityPart.split("\\|");
+        if (heuristic == null && !isEliminationOrder(bn, eliminationOrderStr)) {
+            return "Error: Unknown elimination order or heuristic - " + eliminationOrderStr;
+        }
+        if (eliminationOrderStr.equals("junction-tree") && parts.length <= 2) {
+            // Calibrate the junction tree instead of eliminating
+            String[] evidence = parts.length == 2 ? parts[1].split(",") : new String[0];
+            return new JunctionTreeInference(bn, evidence).getFinalAnswer(parts[0]);
+        }
+        if (eliminationOrderStr.equals("cutset-conditioning") && parts.length <= 2) {
+            // Condition on a loop cutset instead of eliminating
+            String[] evidence = parts.length == 2 ? parts[1].split(",") : new String[0];
+            return new CutsetConditioning(bn, parts[0], evidence).getFinalAnswer();
+        }
         if (parts.length == 1) {
             // No evidence provided
             String queryNode = parts[0];
             String[] evidence = new String[0];
             String[] hiddenVariables = eliminationOrderStr.split("-");
 
-            VariableElimination ve = new VariableElimination(bn, queryNode, hiddenVariables, evidence);
+            VariableElimination ve = heuristic != null
+                    ? new VariableElimination(bn, queryNode, heuristic, evidence)
+                    : new VariableElimination(bn, queryNode, hiddenVariables, evidence);
             return ve.getFinalAnswer();
         } else if (parts.length == 2) {
             // Evidence is provided
@@ -186,13 +221,26 @@ public class TestRunner {
             String[] evidence = parts[1].split(",");
             String[] hiddenVariables = eliminationOrderStr.split("-");
 
-            VariableElimination ve = new VariableElimination(bn, queryNode, hiddenVariables, evidence);
+            VariableElimination ve = heuristic != null
+                    ? new VariableElimination(bn, queryNode, heuristic, evidence)
+                    : new VariableElimination(bn, queryNode, hiddenVariables, evidence);
             return ve.getFinalAnswer();
         } else {
             return "Error: Probability query part is missing evidence.";
         }
     }
 
+    private static boolean isEliminationOrder(BayesianNetwork bn, String order) {
+        if (order.equals("junction-tree") || order.equals("cutset-conditioning")) {
+            return true;
+        }
+        for (String name : order.split("-")) {
+            if (bn.getNodeByName(name.trim()) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
 
     private static String processIndependenceQuery(BayesianNetwork bn, String query) {
         String[] parts = query.split("\\|");
@@ -328,3 +328,133 @@ P(G=F|R=F) S
 END_INPUT
 0.64000,3,4
 END_OUTPUT
+## input56
+alarm_net.xml
+P(J=T|B=T)
+P(J=T|B=T) min-fill
+P(J=T|B=T) min-degree
+P(J=T|B=T) randomized
+END_INPUT
+0.84902,5,8
+0.84902,5,8
+0.84902,5,8
+0.84902,5,8
+END_OUTPUT
+## input57
+big_net.xml
+P(C1=T)
+P(C1=T) min-fill
+P(C1=T) min-degree
+P(C1=T) weighted-min-fill
+P(C1=T) randomized
+P(D1=T) randomized
+END_INPUT
+0.53646,122,200
+0.53646,122,200
+0.53646,122,216
+0.53646,122,200
+0.53646,122,200
+0.43829,174,312
+END_OUTPUT
+## input58
+big_net.xml
+P(C1=T) max-fill
+END_INPUT
+Error: Unknown elimination order or heuristic - max-fill
+END_OUTPUT
+## input59
+alarm_net.xml
+P(B=T|J=T,M=T) junction-tree
+P(J=T|B=T) junction-tree
+P(A=T) junction-tree
+END_INPUT
+0.28417,19,48
+0.84902,11,30
+0.00252,19,52
+END_OUTPUT
+## input60
+big_net.xml
+P(B0=v3|C3=T,B2=F,C2=v3) junction-tree
+P(D1=T) junction-tree
+END_INPUT
+0.42307,47,164
+0.43829,439,1340
+END_OUTPUT
+## input61
+alarm_net.xml
+P(A=T) J-B-E-M
+P(A=F) B-J-E-M
+P(M=F) A-E-B-J
+P(M=T) E-A-J-B
+END_INPUT
+0.00252,6,12
+0.99748,6,12
+0.98826,14,28
+0.01174,10,20
+END_OUTPUT
+## input62
+alarm_net.xml
+P(B=T|J=T,M=T) cutset-conditioning
+P(J=T|B=T) cutset-conditioning
+P(A=T) cutset-conditioning
+END_INPUT
+0.28417,7,24
+0.84902,5,10
+0.00252,7,12
+END_OUTPUT
+## input63
+big_net.xml
+P(B0=v3|C3=T,B2=F,C2=v3) cutset-conditioning
+P(C1=T) cutset-conditioning
+P(D1=T) cutset-conditioning
+END_INPUT
+0.42307,10,23
+0.53646,133,340
+0.43829,259,708
+END_OUTPUT
+## input64
+big_net.xml
+A1-A2|C3=T
+A1-B3|C3=T
+A1-A3|C3=T
+B2-A1|C3=T
+A1-D1|C3=T
+A1-A3|C3=T,C1=T
+A3-A1|C1=T,C3=T
+B3-A1|C1=T,C3=T
+A2-A3|
+A2-B0|
+A3-A2|
+D1-A2|
+END_INPUT
+no
+yes
+yes
+no
+no
+no
+no
+no
+yes
+yes
+yes
+no
+END_OUTPUT
+## input65
+gate_net.xml
+P(Y=T) A-B-X-C
+P(A=T|X=T) B
+P(C=T|Y=T,W=F) A-B-X
+P(X=T|Z=T) A-B-C-Y
+P(Y=T|Z=F) junction-tree
+P(A=T|Z=T) junction-tree
+P(B=T|Y=T) cutset-conditioning
+END_INPUT
+0.34400,12,24
+1.00000,3,6
+1.00000,9,20
+0.36751,13,26
+0.06152,27,106
+0.69147,33,106
+0.59302,9,20
+END_OUTPUT
@@ -1,4 +1,6 @@
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
 /**
@@ -6,14 +8,24 @@ import java.util.*;
  */
 public class VariableElimination {
     private BayesianNetwork network;            // The Bayesian network on which to perform variable elimination
-    private List<Factor> initialFactors;        // Stores the initial factors generated from the network
+    private SymbolTable symbols;                // Interned variable names and outcomes of the network
     private List<Factor> factors;               // Factors to be processed during variable elimination
     private List<Node> hiddenNodes;             // Nodes to be hidden during the elimination
-    private List<String> hiddenOrder;           // Order in which the hidden nodes should be processed
+    private List<Integer> hiddenOrder;          // Ids of the hidden nodes in the order they should be processed
     private List<Node> evidenceNodes;           // Nodes representing evidence
-    private Map<Node, String> nodeEvidenceMap;  // Mapping of evidence nodes to their observed states
+    private Map<Node, Integer> nodeEvidenceMap; // Mapping of evidence nodes to their observed outcome indices
     private Node queryNode;                     // The query node for which probability is calculated
-    private String queryOutcome;                // The outcome of the query node to calculate the probability for
+    private int queryOutcome;                   // Index of the query node's outcome to calculate the probability for
+    private InferenceContext context;           // Operation counts and factor ids of this query
+    private List<Integer> relevantNodes;        // Ids of the nodes whose factors are used, in the order of the factors
+    private QueryPlan plan;                     // Structure of the query, compiled or taken from the network's cache
+    private MemoryBudget budget;                // Limit on the tables the query may build
+    private MemoryBudget.Outcome budgetOutcome; // How the query was fitted into the budget
+    private List<Node> conditionedNodes;        // Nodes whose outcomes the query is summed over to fit the budget
+    private double conditionedProbability;      // The answer of a conditioned query
+
+    private static final int OPTIMAL_JOIN_LIMIT = 8;    // Largest bucket whose join order is searched exhaustively
+    private static volatile long parallelBranchSize = Long.getLong("inference.parallelBranchSize", 1 << 15);
 
     /**
      * Constructor initializes the variable elimination process.
@@ -24,103 +36,299 @@ public class VariableElimination {
      * @param evidence Array of evidence in the format Node=Value
      */
     public VariableElimination(BayesianNetwork network, String query, String[] hidden, String[] evidence) {
+        this(network, query, hidden, null, evidence);
+    }
+
+    /**
+     * Constructor initializes the variable elimination process, letting a heuristic order the hidden nodes.
+     * Every node that is neither the query nor evidence is hidden.
+     *
+     * @param network   Bayesian network
+     * @param query     Query specifying the target node and outcome
+     * @param heuristic Heuristic choosing the elimination order
+     * @param evidence  Array of evidence in the format Node=Value
+     */
+    public VariableElimination(BayesianNetwork network, String query, EliminationOrderHeuristic heuristic, String[] evidence) {
+        this(network, query, new String[0], heuristic, evidence);
+    }
+
+    /**
+     * Constructor initializes the variable elimination process.
+     *
+     * @param network   Bayesian network
+     * @param query     Query specifying the target node and outcome
+     * @param hidden    Array of hidden nodes, in elimination order unless a heuristic is given
+     * @param heuristic Heuristic choosing the elimination order of all hidden nodes, or null to keep the given order
+     * @param evidence  Array of evidence in the format Node=Value
+     */
+    private VariableElimination(BayesianNetwork network, String query, String[] hidden,
+                                EliminationOrderHeuristic heuristic, String[] evidence) {
         this.network = network;
-        this.initialFactors = new ArrayList<>();  // Initialize the initial factors list
+        this.symbols = network.getSymbolTable();
         this.factors = new ArrayList<>();
         this.hiddenNodes = new ArrayList<>();
-        this.hiddenOrder = new ArrayList<>(Arrays.asList(hidden));  // Initialize the order of hidden nodes from input
+        this.hiddenOrder = new ArrayList<>();     // Filled with the order of hidden nodes from input
         this.evidenceNodes = new ArrayList<>();
         this.nodeEvidenceMap = new HashMap<>();
+        this.context = new InferenceContext(symbols.size());   // Joined factors are numbered after the CPT factors
+        this.relevantNodes = new ArrayList<>();
+        this.budget = MemoryBudget.getDefault();
+        this.conditionedNodes = new ArrayList<>();
 
         parseQuery(query);                                  // Parse the query input
         initializeHidAndEviNodes(hidden, evidence);         // Initialize hidden and evidence nodes
-        Set<Node> irrelevantNodes = findIrrelevantNodes();  // Identify nodes not relevant to the query
-        for(Node irrelevantNode: irrelevantNodes){
-            String name  = irrelevantNode.getNodeName();
-            hiddenNodes.remove(irrelevantNode);
-            hiddenOrder.remove(name);
+
+        // Queries differing only in the observed outcomes share a plan, unless an outcome is unknown
+        QueryPlanCache.Key key = null;
+        if (isPlanShareable()) {
+            List<Integer> evidenceVariables = new ArrayList<>();
+            for (Node evidenceNode : evidenceNodes) {
+                evidenceVariables.add(evidenceNode.getNodeId());
+            }
+            Collections.sort(evidenceVariables);
+            key = heuristic != null ? QueryPlanCache.Key.of(queryNode.getNodeId(), evidenceVariables, heuristic)
+                    : QueryPlanCache.Key.of(queryNode.getNodeId(), evidenceVariables, hiddenOrder);
+            this.plan = network.getPlanCache().get(key);
+            if (this.plan != null && this.plan.getPeakTableSize() > budget.getMaxTableSize()) {
+                this.plan = null;                           // The budget shrank since the plan was cached
+            }
+        }
+
+        this.budgetOutcome = MemoryBudget.Outcome.WITHIN_BUDGET;
+        if (this.plan == null) {
+            if (heuristic != null) {
+                hideRemainingNodes();                       // Every other node is hidden, the heuristic orders them below
+            }
+            Set<Node> irrelevantNodes = findIrrelevantNodes();  // Identify nodes not relevant to the query
+            generateRelevantFactors(irrelevantNodes);       // Generate factors only for relevant nodes
+            removeUnusedHiddenNodes();                      // Nothing is left to sum the pruned nodes out of
+            if (heuristic != null) {
+                orderHiddenNodes(heuristic);                // Order the relevant hidden nodes on the graph of their factors
+            }
+            this.plan = compilePlan(heuristic != null);     // Decide which factors each hidden variable joins
+            this.budgetOutcome = fitBudget();               // Reorder or condition a plan too large for the budget
+            if (key != null && budgetOutcome == MemoryBudget.Outcome.WITHIN_BUDGET) {
+                network.getPlanCache().put(key, this.plan);
+            }
         }
-        generateRelevantFactors(irrelevantNodes);           // Generate factors only for relevant nodes
-        saveInitialFactors();                               // Save the initial state of factors for resetting later
+        Trace.event(Trace.Level.INFO, Trace.Event.BUDGET_CHECKED, budgetOutcome.name(), plan.getPeakTableSize());
 
-        runVariableElimination();                           // Start the variable elimination process
+        if (budgetOutcome == MemoryBudget.Outcome.CONDITIONED) {
+            runConditioned();                               // Sum the query over the outcomes of the conditioned nodes
+        } else if (budgetOutcome != MemoryBudget.Outcome.REJECTED) {
+            runVariableElimination();                       // Start the variable elimination process
+        }
 
     }
 
     /**
-     * Main method to run the variable elimination process after initializing all factors.
+     * Checks the plan against the memory budget before anything runs, and applies the budget's policy to a plan
+     * that does not fit: first the plan of the elimination heuristic giving the smallest tables is taken, then
+     * nodes are conditioned on one at a time, each chosen among the variables of the largest table.
+     *
+     * @return How the query was fitted into the budget
      */
-    public void runVariableElimination() {
-        Factor.resetCounts();                                               // Resetting multiplication and addition counts before each run
-        applyEvidence();                                                    // Apply evidence to the factors
-        Set<String> evidenceVariableNames = getEvidenceVariableNames();     // Get the names of the evidence variables
-        Collections.sort(factors);                                          // Sort the factors
-
-        // Print each factor for visualization and debugging purposes
-        for(Factor factor: this.factors){
-            System.out.println(factor);
+    private MemoryBudget.Outcome fitBudget() {
+        long limit = budget.getMaxTableSize();
+        if (plan.getPeakTableSize() <= limit) {
+            return MemoryBudget.Outcome.WITHIN_BUDGET;
+        }
+        if (budget.getPolicy() != MemoryBudget.Policy.REJECT) {
+            List<Integer> original = new ArrayList<>(hiddenOrder);
+            List<Integer> bestOrder = original;
+            QueryPlan bestPlan = plan;
+            for (EliminationOrderHeuristic candidate : new EliminationOrderHeuristic[]{EliminationOrderHeuristic.MIN_FILL,
+                    EliminationOrderHeuristic.WEIGHTED_MIN_FILL, EliminationOrderHeuristic.MIN_DEGREE, EliminationOrderHeuristic.RANDOMIZED}) {
+                this.hiddenOrder = new ArrayList<>(original);
+                orderHiddenNodes(candidate);
+                QueryPlan candidatePlan = compilePlan(true);
+                if (candidatePlan.getPeakTableSize() < bestPlan.getPeakTableSize()) {
+                    bestPlan = candidatePlan;
+                    bestOrder = hiddenOrder;
+                }
+            }
+            this.hiddenOrder = bestOrder;
+            this.plan = bestPlan;
+            if (plan.getPeakTableSize() <= limit) {
+                return MemoryBudget.Outcome.REORDERED;
+            }
+        }
+        if (budget.getPolicy() != MemoryBudget.Policy.CONDITION) {
+            return MemoryBudget.Outcome.REJECTED;
         }
 
-        // Eliminate each hidden variable as per the order provided
-        for (String hiddenVar : hiddenOrder) {
-            List<Factor> factorsToJoin = new ArrayList<>();
-
-            // Find all factors that involve the hidden variable
-            for (Iterator<Factor> it = factors.iterator(); it.hasNext(); ) {
-                Factor factor = it.next();
-                if (factor.involvesVariable(hiddenVar)) {
-                    factorsToJoin.add(factor);
-                    it.remove();  // Prevent reprocessing
+        while (plan.getPeakTableSize() > limit) {
+            Node bestNode = null;
+            QueryPlan bestPlan = null;
+            for (int variable : plan.getPeakScope()) {
+                Node node = network.getNodeByName(symbols.getVariableName(variable));
+                if (node == queryNode || nodeEvidenceMap.containsKey(node)) {
+                    continue;
                 }
+                int position = hiddenOrder.indexOf(variable);
+                condition(node);
+                QueryPlan candidatePlan = compilePlan(true);
+                if (bestPlan == null || candidatePlan.getPeakTableSize() < bestPlan.getPeakTableSize()) {
+                    bestNode = node;
+                    bestPlan = candidatePlan;
+                }
+                uncondition(node, position);
+            }
+            if (bestNode == null) {
+                return MemoryBudget.Outcome.REJECTED;       // Only the query is left in the largest table
             }
+            condition(bestNode);
+            this.plan = bestPlan;
+        }
+        return MemoryBudget.Outcome.CONDITIONED;
+    }
 
-            // Join factors that involve the hidden variable
-            int prevMult = Factor.getMultiplicationCount();
-            int prevAdd = Factor.getAdditionCount();
-            Collections.sort(factorsToJoin);        // Sort factors to join for consistent processing
-            while (factorsToJoin.size() > 1) {
+    /**
+     * Treats a node as observed, so that it is no longer summed out by the plan.
+     *
+     * @param node The node to condition on
+     */
+    private void condition(Node node) {
+        conditionedNodes.add(node);
+        evidenceNodes.add(node);
+        nodeEvidenceMap.put(node, 0);
+        hiddenOrder.remove(Integer.valueOf(node.getNodeId()));
+    }
 
-                // Join the first two factors in the list
-                Factor joinedFactor = Factor.joinFactors(factorsToJoin.get(0), factorsToJoin.get(1), evidenceVariableNames);
-                prevMult = Factor.getMultiplicationCount();
-                factorsToJoin.remove(0);
-                factorsToJoin.remove(0);
-                factorsToJoin.add(0, joinedFactor);  // Add the newly joined factor at the start of the list
-            }
+    /**
+     * Undoes the conditioning on the last conditioned node.
+     *
+     * @param node     The node
+     * @param position Its former position in the elimination order, or -1 if it had none
+     */
+    private void uncondition(Node node, int position) {
+        conditionedNodes.remove(conditionedNodes.size() - 1);
+        evidenceNodes.remove(evidenceNodes.size() - 1);
+        nodeEvidenceMap.remove(node);
+        if (position >= 0) {
+            hiddenOrder.add(position, node.getNodeId());
+        }
+    }
 
-            // Special condition to remove factors if the resulting factor has only one row after elimination
-            if(factorsToJoin.size() > 0 && (factorsToJoin.get(0).getTableSize() / (this.network.getNodeByName(hiddenVar).getPossibleStates().size())) == 1){
-                Factor toRemove  = factorsToJoin.get(0);
-                factors.remove(toRemove);
+    /**
+     * Runs the plan once for every combination of outcomes of the conditioned nodes, and sums the joint tables
+     * of the query and the evidence it leaves, which are not normalized. Each run only builds tables within
+     * the budget, and the operations of all runs are counted.
+     */
+    private void runConditioned() {
+        int query = queryNode.getNodeId();
+        double[] totals = new double[symbols.getCardinality(query)];
+        int[] outcomes = new int[conditionedNodes.size()];
+        int additions = 0;
+        int multiplications = 0;
+        int peak = 0;
+        boolean first = true;
+        do {
+            for (int i = 0; i < outcomes.length; i++) {
+                nodeEvidenceMap.put(conditionedNodes.get(i), outcomes[i]);
             }
+            runVariableElimination();
+            additions += context.getAdditionCount() + (first ? 0 : totals.length);   // Adding the joint to the totals
+            multiplications += context.getMultiplicationCount();
+            peak = Math.max(peak, context.getPeakTableSize());
+            Factor joint = factors.get(0);
+            if (joint.involvesVariable(query)) {
+                for (int outcome = 0; outcome < totals.length; outcome++) {
+                    totals[outcome] += joint.getProbability(query, outcome);
+                }
+            }
+            first = false;
+        } while (nextOutcomes(outcomes));
 
-            // After joining all factors involving the hidden variable, eliminate the variable
-            if (!factorsToJoin.isEmpty()) {
-                Factor remainingFactor = factorsToJoin.get(0);
-                remainingFactor.eliminateFactor(hiddenVar);
+        double sum = 0;
+        for (double total : totals) {
+            sum += total;
+        }
+        this.conditionedProbability = sum > 0 && queryOutcome >= 0 ? totals[queryOutcome] / sum : 0;
+        context.resetCounts();
+        context.addAdditions(additions + totals.length - 1);
+        context.addMultiplications(multiplications);
+        context.recordTableSize(peak);
+    }
 
-                factors.add(remainingFactor);               // Add the modified factor back to the main list
+    /**
+     * Advances the outcomes of the conditioned nodes to their next combination, last node fastest.
+     *
+     * @param outcomes The outcome index of each conditioned node, changed in place
+     * @return false once every combination was visited
+     */
+    private boolean nextOutcomes(int[] outcomes) {
+        for (int i = outcomes.length - 1; i >= 0; i--) {
+            if (++outcomes[i] < symbols.getCardinality(conditionedNodes.get(i).getNodeId())) {
+                return true;
+            }
+            outcomes[i] = 0;
+        }
+        return false;
+    }
 
-                // Check if the answer can be directly determined from the remaining factor
-                if (isDirectAnswer(remainingFactor)) {
-                    return;
-                }
+    /**
+     * Main method to run the variable elimination process: applies the evidence to copies of the plan's
+     * factors, joins and sums out every bucket of the plan, then joins and normalizes what remains.
+     */
+    public void runVariableElimination() {
+        context.resetCounts();                                              // Resetting multiplication and addition counts before each run
+        int[] factorVariables = plan.getFactorVariables();
+        this.factors = new ArrayList<>();
+        Factor[] slots = new Factor[factorVariables.length + plan.getBucketCount()];
+        for (int i = 0; i < factorVariables.length; i++) {
+            Node node = network.getNodeByName(symbols.getVariableName(factorVariables[i]));
+            slots[i] = node.getFactor().clone();                            // The evidence is applied to a copy
+            factors.add(slots[i]);
+        }
+        applyEvidence();                                                    // Apply evidence to the factors
+        Collections.sort(factors);                                          // Sort the factors
+
+        // Trace each factor for visualization and debugging purposes
+        if (Trace.isEnabled(Trace.Level.DEBUG)) {
+            for (Factor factor : this.factors) {
+                Trace.event(Trace.Level.DEBUG, Trace.Event.INITIAL_FACTOR, factor.getFactorLabel(), factor.getTableSize());
             }
         }
 
-        // Check if a single factor remains and if it can directly provide the answer
-        if(this.factors.size() == 1){
-            if (isDirectAnswer(this.factors.get(0))) {
-                int j = 0;
-                return;
+        // Eliminate each hidden variable as per the order of the plan, the large independent branches at the same time
+        if (isParallel()) {
+            int[] lastIds = new int[plan.getBucketCount()];        // The last factor id taken before each bucket in order
+            int lastId = context.getLastFactorId();
+            for (int bucket = 0; bucket < lastIds.length; bucket++) {
+                lastIds[bucket] = lastId;
+                lastId += Math.max(plan.getBucketInputs(bucket).length - 1, 0);     // Every join creates a factor
             }
+            BranchElimination root = new BranchElimination(plan.getRemainingBuckets(), slots, lastIds);
+            ForkJoinPool.commonPool().invoke(root);
+            context.merge(root.branchContext);
+            context.seekFactorIds(lastId);
+        } else {
+            for (int bucket = 0; bucket < plan.getBucketCount(); bucket++) {
+                eliminateBucket(bucket, slots, context);
+            }
+        }
+
+        // The factors left over: the unused CPT factors in sorted order, then the unused bucket results
+        this.factors = new ArrayList<>();
+        for (int slot : plan.getRemainingFactors()) {
+            factors.add(slots[slot]);
+        }
+        Collections.sort(factors);
+        for (int bucket : plan.getRemainingBuckets()) {
+            factors.add(slots[factorVariables.length + bucket]);
+        }
+
+        // Check if the remaining factors directly provide the answer
+        if (plan.isAnswered()) {
+            return;
         }
 
         HashSet<Factor> toRemove = new HashSet<>();
 
-        // Remove any remaining factors that have only one row
+        // Remove any remaining factors that have only one row, unless the runs of a conditioned query are summed
         for( Factor remainFactor : this.factors){
-            if (remainFactor.getTableSize() == 1){
+            if (remainFactor.getTableSize() == 1 && conditionedNodes.isEmpty()){
                 toRemove.add(remainFactor);
             }
         }
@@ -130,15 +338,178 @@ public class VariableElimination {
 
         // If multiple factors remain, join them into a single factor
         while (factors.size() > 1) {
-            Factor joinedFactor = Factor.joinFactors(factors.get(0), factors.get(1), evidenceVariableNames);
+            Factor joinedFactor = Factor.joinFactors(context, factors.get(0), factors.get(1));
 
             factors.remove(0);
             factors.remove(0);
             factors.add(joinedFactor);
         }
 
-        // Normalize the final factor
-        normalizeFinalFactors();
+        // Normalize the final factor, unless the runs of a conditioned query are summed first
+        if (conditionedNodes.isEmpty()) {
+            normalizeFinalFactors();
+        }
+    }
+
+    /**
+     * Joins the factors of a bucket and sums its variable out of the product, into the bucket's slot.
+     *
+     * @param bucket  The index of the bucket in the plan
+     * @param slots   The factor of each slot, from which the bucket's inputs are taken
+     * @param context The context counting the operations
+     */
+    private void eliminateBucket(int bucket, Factor[] slots, InferenceContext context) {
+        int hiddenVar = plan.getBucketVariable(bucket);
+        List<Factor> factorsToJoin = new ArrayList<>();
+        for (int slot : plan.getBucketInputs(bucket)) {
+            factorsToJoin.add(slots[slot]);
+        }
+
+        // Join factors that involve the hidden variable, in the order of the plan if it fixes one
+        int[] joins = plan.getBucketJoins(bucket);
+        if (joins != null) {
+            for (int j = 0; j + 2 < joins.length; j += 2) {
+                factorsToJoin.add(Factor.joinFactors(context, factorsToJoin.get(joins[j]), factorsToJoin.get(joins[j + 1])));
+            }
+            if (joins.length > 0) {
+                Factor lastA = factorsToJoin.get(joins[joins.length - 2]);
+                Factor lastB = factorsToJoin.get(joins[joins.length - 1]);
+                factorsToJoin = new ArrayList<>(List.of(lastA, lastB));
+            }
+        } else {
+            Collections.sort(factorsToJoin);        // Sort factors to join for consistent processing
+            while (factorsToJoin.size() > 2) {
+
+                // Join the first two factors in the list
+                Factor joinedFactor = Factor.joinFactors(context, factorsToJoin.get(0), factorsToJoin.get(1));
+                factorsToJoin.remove(0);
+                factorsToJoin.remove(0);
+                factorsToJoin.add(0, joinedFactor);  // Add the newly joined factor at the start of the list
+            }
+        }
+
+        // After joining all factors involving the hidden variable, eliminate the variable.
+        // The last join is fused with the elimination so its full product table is never built.
+        Factor remainingFactor;
+        if (factorsToJoin.size() == 2) {
+            remainingFactor = Factor.joinAndEliminate(context, factorsToJoin.get(0), factorsToJoin.get(1), hiddenVar);
+        } else {
+            remainingFactor = factorsToJoin.get(0);
+            remainingFactor.eliminateFactor(context, hiddenVar);
+        }
+        slots[plan.getFactorVariables().length + bucket] = remainingFactor;
+    }
+
+    /**
+     * Retrieves the number of rows a branch of the elimination tree must join to be eliminated as a task of its own.
+     * The default is read at startup from -Dinference.parallelBranchSize=rows.
+     *
+     * @return The smallest branch forked as a task
+     */
+    public static long getParallelBranchSize() {
+        return parallelBranchSize;
+    }
+
+    /**
+     * Replaces the number of rows a branch of the elimination tree must join to be eliminated as a task of its own.
+     *
+     * @param rows The smallest branch forked as a task, 1 to fork every branch
+     */
+    public static void setParallelBranchSize(long rows) {
+        parallelBranchSize = rows;
+    }
+
+    /**
+     * Decides whether the buckets are eliminated on the common fork-join pool. Small plans are not worth the
+     * tasks, and traced queries stay on one thread so their events keep the order of the plan.
+     *
+     * @return true if the plan has enough work for more than one branch task
+     */
+    private boolean isParallel() {
+        if (Trace.isEnabled(Trace.Level.DEBUG)) {
+            return false;
+        }
+        long size = 0;
+        for (int bucket : plan.getRemainingBuckets()) {
+            size = saturatedAdd(size, plan.getSubtreeSize(bucket));
+        }
+        return size >= saturatedAdd(parallelBranchSize, parallelBranchSize);
+    }
+
+    /**
+     * Eliminates a branch of the elimination tree: some buckets and, in order, all buckets below them.
+     * Where a bucket joins the results of several branches, those of at least parallelBranchSize rows are
+     * forked as tasks of their own and joined just before the bucket needs them. Each task counts its operations
+     * in a fork of the query's context, which its parent merges once it has joined it, and numbers the factors
+     * of each bucket as they would be numbered in the order of the plan.
+     */
+    private final class BranchElimination extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] roots;                      // The buckets ending the branch
+        private final Factor[] slots;                   // The factor of each slot, shared by all tasks of the query
+        private final int[] lastIds;                    // The last factor id taken before each bucket in plan order
+        private final InferenceContext branchContext;   // The operations of this branch and its joined sub-branches
+
+        /**
+         * Constructs the task of a branch.
+         *
+         * @param roots   The buckets ending the branch
+         * @param slots   The factor of each slot
+         * @param lastIds The last factor id taken before each bucket in plan order
+         */
+        private BranchElimination(int[] roots, Factor[] slots, int[] lastIds) {
+            this.roots = roots;
+            this.slots = slots;
+            this.lastIds = lastIds;
+            this.branchContext = context.fork();
+        }
+
+        @Override
+        protected void compute() {
+            int factorCount = plan.getFactorVariables().length;
+            Map<Integer, BranchElimination> forks = new HashMap<>();    // Sub-branch task of each forked bucket
+            List<Integer> buckets = new ArrayList<>();
+            Deque<int[]> worklist = new ArrayDeque<>();
+            worklist.push(roots);
+            while (!worklist.isEmpty()) {
+                int[] children = worklist.pop();
+                for (int child : children) {
+                    if (children.length > 1 && plan.getSubtreeSize(child) >= parallelBranchSize) {
+                        BranchElimination fork = new BranchElimination(new int[]{child}, slots, lastIds);
+                        fork.fork();
+                        forks.put(child, fork);
+                    } else {
+                        buckets.add(child);
+                        worklist.push(Arrays.stream(plan.getBucketInputs(child)).filter(slot -> slot >= factorCount)
+                                .map(slot -> slot - factorCount).toArray());
+                    }
+                }
+            }
+
+            // A bucket only joins earlier results, so the plan's order is also an order of this branch
+            Collections.sort(buckets);
+            for (int bucket : buckets) {
+                for (int slot : plan.getBucketInputs(bucket)) {
+                    join(forks.remove(slot - factorCount));
+                }
+                branchContext.seekFactorIds(lastIds[bucket]);
+                eliminateBucket(bucket, slots, branchContext);
+            }
+            forks.values().forEach(this::join);
+        }
+
+        /**
+         * Waits for a sub-branch and takes over its operation counts.
+         *
+         * @param fork The task of the sub-branch, or null if the slot is not one
+         */
+        private void join(BranchElimination fork) {
+            if (fork != null) {
+                fork.join();
+                branchContext.merge(fork.branchContext);
+            }
+        }
     }
 
     /**
@@ -152,7 +523,9 @@ public class VariableElimination {
         // Check if the query is in the correct format
         if (queryParts.length == 2) {
             this.queryNode = network.getNodeByName(queryParts[0].trim());
-            this.queryOutcome = queryParts[1].trim();
+            if (this.queryNode != null) {
+                this.queryOutcome = symbols.getOutcomeIndex(this.queryNode.getNodeId(), queryParts[1].trim());
+            }
         } else {
 
         }
@@ -165,13 +538,12 @@ public class VariableElimination {
      * @param evidence Array of evidence nodes with their values
      */
     private void initializeHidAndEviNodes(String[] hidden, String[] evidence) {
-        System.out.println("Initializing nodes for variable elimination...");
-
         // Add hidden nodes to the list
         for (String hiddenNodeName : hidden) {
             Node node = network.getNodeByName(hiddenNodeName.trim());
             if (node != null) {
                 this.hiddenNodes.add(node);
+                this.hiddenOrder.add(node.getNodeId());
             } else {
                 System.err.println("Warning: Hidden node not found in the network - " + hiddenNodeName);
             }
@@ -184,7 +556,7 @@ public class VariableElimination {
                 Node node = network.getNodeByName(parts[0].trim());
                 if (node != null) {
                     this.evidenceNodes.add(node);
-                    this.nodeEvidenceMap.put(node, parts[1].trim());
+                    this.nodeEvidenceMap.put(node, symbols.getOutcomeIndex(node.getNodeId(), parts[1].trim()));
                 } else {
                     System.err.println("Warning: Evidence node not found in the network - " + parts[0]);
                 }
@@ -195,65 +567,81 @@ public class VariableElimination {
     }
 
     /**
-     * Identifies irrelevant nodes that do not affect the query outcome.
-     * @return Set of irrelevant nodes
+     * Hides every node that is neither the query nor evidence, in id order.
      */
-    private Set<Node> findIrrelevantNodes() {
-        ArrayList<String> norellevent = new ArrayList<>();          // List to store names of irrelevant nodes
-        Set<Node> irrelevant = new HashSet<>();                     // Set to store irrelevant nodes
-        ArrayList<Node> queryAndEvidence = new ArrayList<>();       // List to store query and evidence nodes
-        queryAndEvidence.addAll(this.evidenceNodes);
-        queryAndEvidence.add(queryNode);
-
-        // Check independence of each hidden node from the query node and evidence
-        for (Node hiddenNode : hiddenNodes) {
-            String name = hiddenNode.getNodeName();
-
-            // Check if the hidden node independent of the query node given the evidence nodes
-            String independence = BayesBall.checkIndependence(network, queryNode, hiddenNode, new ArrayList<>(evidenceNodes));
-
-            // Check the reverse independence as well
-            String independence2 = BayesBall.checkIndependence(network, hiddenNode, queryNode, new ArrayList<>(evidenceNodes));
-
-            // If both checks indicate independence, mark the node as irrelevant
-            if((independence.equals("yes") && independence2.equals("yes"))){
-                irrelevant.add(hiddenNode);
-
-                // Add the children of the irrelevant node to the irrelevant set
-                for(Node childrenIrrelevant : hiddenNode.getChildren()){
-                    irrelevant.add(childrenIrrelevant);
-                    norellevent.add(hiddenNode.getNodeName());
-                }
-                norellevent.add(hiddenNode.getNodeName());
-                continue;
+    private void hideRemainingNodes() {
+        for (Node node : network.getNodes()) {
+            if (node != queryNode && !nodeEvidenceMap.containsKey(node) && !hiddenNodes.contains(node)) {
+                hiddenNodes.add(node);
             }
+        }
+        hiddenNodes.sort(Comparator.comparingInt(Node::getNodeId));
+        hiddenOrder.clear();
+        for (Node node : hiddenNodes) {
+            hiddenOrder.add(node.getNodeId());
+        }
+    }
 
-            boolean isRelevant = false;  // Flag to check if the hidden node is relevant due to any evidence node
-
-            // Check if any evidence/query node is an ancestor of the hidden node
-            for (Node groupNode : queryAndEvidence) {
-                if (isAncestor(hiddenNode, groupNode)) {
-                    isRelevant = true;
-                    break;  // If any evidence node is an ancestor, the hidden node is relevant
-                }
-            }
+    /**
+     * Reorders the hidden nodes with a heuristic.
+     * The graph ties the variables of each relevant factor; evidence variables are left out, since their
+     * observed outcome is fixed and they do not enlarge any table.
+     *
+     * @param heuristic Heuristic choosing the elimination order
+     */
+    private void orderHiddenNodes(EliminationOrderHeuristic heuristic) {
+        Set<Integer> evidenceVariables = new HashSet<>();
+        for (Node evidenceNode : evidenceNodes) {
+            evidenceVariables.add(evidenceNode.getNodeId());
+        }
+        List<int[]> scopes = new ArrayList<>();
+        for (Factor factor : factors) {
+            scopes.add(Arrays.stream(factor.getVariables()).filter(variable -> !evidenceVariables.contains(variable)).toArray());
+        }
+        int[] hidden = hiddenOrder.stream().mapToInt(Integer::intValue).toArray();
+        hiddenOrder.clear();
+        for (int variable : heuristic.order(new MoralGraph(symbols, scopes), hidden)) {
+            hiddenOrder.add(variable);
+        }
+    }
 
-            // If the hidden node is not relevant, mark it as irrelevant
-            if (!isRelevant) {
-                irrelevant.add(hiddenNode);
+    /**
+     * Identifies the nodes whose factors the query does not need: the barren nodes, the nodes d-separated
+     * from the query given the evidence, and the children of both. All are found in one pass over the network.
+     *
+     * @return Set of irrelevant nodes
+     */
+    private Set<Node> findIrrelevantNodes() {
+        Set<Node> irrelevant = new HashSet<>();     // Set to store irrelevant nodes
+        if (queryNode == null) {
+            return irrelevant;
+        }
+        BitSet evidence = new BitSet(symbols.size());
+        for (Node evidenceNode : evidenceNodes) {
+            evidence.set(evidenceNode.getNodeId());
+        }
+        BitSet ids = RelevancePruning.irrelevantNodes(network, queryNode.getNodeId(), evidence);
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            Node node = network.getNodeByName(symbols.getVariableName(id));
+            irrelevant.add(node);
+            Trace.event(Trace.Level.INFO, Trace.Event.NODE_PRUNED, node.getNodeName(), 0);
+        }
+        return irrelevant;
+    }
 
-                // Add the children of the irrelevant node to the irrelevant set
-                for(Node childrenIrrelevant : hiddenNode.getChildren()){
-                    irrelevant.add(childrenIrrelevant);
-                    norellevent.add(hiddenNode.getNodeName());
-                }
-                norellevent.add(hiddenNode.getNodeName());
-                System.out.println("Marked node " + hiddenNode.getNodeName() + " as irrelevant.");
+    /**
+     * Removes the hidden nodes that no relevant factor holds. A pruned node may still appear in the factor
+     * of a relevant child, and is then summed out like any other hidden node.
+     */
+    private void removeUnusedHiddenNodes() {
+        BitSet used = new BitSet(symbols.size());
+        for (Factor factor : factors) {
+            for (int variable : factor.getVariables()) {
+                used.set(variable);
             }
         }
-
-        Collections.sort(norellevent);      // Sort the list of irrelevant node names
-        return irrelevant;                  // Return the set of irrelevant nodes
+        hiddenNodes.removeIf(node -> !used.get(node.getNodeId()));
+        hiddenOrder.removeIf(variable -> !used.get(variable));
     }
 
     /**
@@ -276,6 +664,7 @@ public class VariableElimination {
                 if (factor != null) {
                     factories_vars.add(node.getNodeName());
                     factors.add(factor);
+                    relevantNodes.add(node.getNodeId());
                 }
             }
         }
@@ -285,75 +674,351 @@ public class VariableElimination {
     }
 
     /**
-     * Saves a copy of the current factors as initial factors.
+     * Checks whether the plan of this query can be shared with queries observing other outcomes.
+     * The structure of the elimination only depends on the observed outcomes when one is unknown
+     * (its factors become empty) or when the query node is itself observed.
+     *
+     * @return true if the plan may be cached
      */
-    private void saveInitialFactors() {
-        // Iterate through the factors and create a deep copy of each one
-        for (Factor factor : factors) {
-            // Deep copy each factor
-            initialFactors.add(new Factor(factor.getProbabilityTable(), String.valueOf(factor.getVariables())));
+    private boolean isPlanShareable() {
+        if (queryNode == null || queryOutcome < 0 || nodeEvidenceMap.containsKey(queryNode)) {
+            return false;
+        }
+        for (int outcome : nodeEvidenceMap.values()) {
+            if (outcome < 0) {
+                return false;
+            }
         }
+        return true;
     }
 
     /**
-     * Applies evidence to the factors, means minimize them according to their states.
+     * Compiles the plan of the query by following the elimination on the variables of the factors alone.
+     * Each hidden variable takes the factors that hold it; joining drops the variables left with a single
+     * outcome (observed ones), and summing out drops the hidden variable. The elimination stops as soon as a
+     * result directly answers the query.
+     *
+     * @param planJoins true to order the joins of each bucket by the sizes of their result tables, false to join
+     *                  the factors of each bucket in sorted order, smallest table first, as a given order expects
+     * @return The plan
      */
-    private void applyEvidence() {
-        Map<String, String> evidenceMap = new HashMap<>();
-
-        // Create a map of evidence variable names and their observed values
-        for (Node node : evidenceNodes) {
-            evidenceMap.put(node.getNodeName(), nodeEvidenceMap.get(node));
+    private QueryPlan compilePlan(boolean planJoins) {
+        List<Set<Integer>> scopes = new ArrayList<>();          // Variables of each slot once the evidence is applied
+        List<Boolean> empty = new ArrayList<>();                // Whether each slot has an empty table
+        LinkedList<Integer> live = new LinkedList<>();          // Slots not joined yet, in the order of the factor list
+        for (Factor factor : factors) {
+            Set<Integer> scope = new HashSet<>();
+            boolean unknownOutcome = false;
+            for (int variable : factor.getVariables()) {
+                scope.add(variable);
+                Integer outcome = nodeEvidenceMap.get(network.getNodeByName(symbols.getVariableName(variable)));
+                unknownOutcome |= outcome != null && outcome < 0;
+            }
+            live.add(scopes.size());
+            scopes.add(scope);
+            empty.add(unknownOutcome);
         }
 
-        // Apply the evidence to each factor
-        for (Factor factor : factors) {
-            boolean involvesEvidence = false;
-            // Check if the factor involves any of the evidence variables
-            for (String variable : evidenceMap.keySet()) {
-                if (factor.involvesVariable(variable)) {
-                    involvesEvidence = true;
-                    break;
+        List<Integer> bucketVariables = new ArrayList<>();
+        List<int[]> bucketInputs = new ArrayList<>();
+        List<int[]> bucketJoins = new ArrayList<>();
+        List<Long> bucketSizes = new ArrayList<>();             // Rows of the product of each bucket
+        List<Integer> bucketOf = new ArrayList<>();             // Bucket of each slot from the first result on
+        Set<Integer> peakScope = new HashSet<>();               // Variables of the largest table joined so far
+        boolean answered = false;
+        for (int hiddenVar : hiddenOrder) {
+            List<Integer> inputs = new ArrayList<>();
+            for (Iterator<Integer> it = live.iterator(); it.hasNext(); ) {
+                int slot = it.next();
+                if (!empty.get(slot) && scopes.get(slot).contains(hiddenVar)) {
+                    inputs.add(slot);
+                    it.remove();
                 }
             }
-            if (involvesEvidence) {
-                factor.filterRows(evidenceMap);
+            if (inputs.isEmpty()) {
+                continue;
+            }
+
+            Set<Integer> scope = new HashSet<>();
+            for (int slot : inputs) {
+                for (int variable : scopes.get(slot)) {
+                    if (inputs.size() == 1 || !isSingleOutcome(variable)) {
+                        scope.add(variable);
+                    }
+                }
+            }
+            bucketSizes.add(estimateTableSize(scope));
+            if (estimateTableSize(scope) > estimateTableSize(peakScope)) {
+                peakScope = new HashSet<>(scope);
+            }
+            scope.remove(hiddenVar);
+            live.add(scopes.size());
+            scopes.add(scope);
+            empty.add(false);
+            bucketOf.add(bucketVariables.size());
+            bucketVariables.add(hiddenVar);
+            bucketInputs.add(inputs.stream().mapToInt(Integer::intValue).toArray());
+            if (planJoins) {
+                List<Set<Integer>> inputScopes = new ArrayList<>();
+                for (int slot : inputs) {
+                    inputScopes.add(scopes.get(slot));
+                }
+                bucketJoins.add(planBucketJoins(inputScopes));
+            }
+            if (isDirectAnswer(scopes.size() - 1, scopes, empty, live)) {
+                answered = true;
+                break;
+            }
+        }
+        if (!answered && live.size() == 1 && !empty.get(live.get(0))) {
+            answered = isDirectAnswer(live.get(0), scopes, empty, live);
+        }
+        if (!answered) {
+            Set<Integer> scope = new HashSet<>();               // The factors left are joined at the end
+            for (int slot : live) {
+                scope.addAll(scopes.get(slot));
+            }
+            if (estimateTableSize(scope) > estimateTableSize(peakScope)) {
+                peakScope = scope;
             }
         }
+
+        int[] remainingFactors = live.stream().filter(slot -> slot < factors.size()).mapToInt(Integer::intValue).toArray();
+        int[] remainingBuckets = live.stream().filter(slot -> slot >= factors.size())
+                .mapToInt(slot -> bucketOf.get(slot - factors.size())).toArray();
+        return new QueryPlan(relevantNodes.stream().mapToInt(Integer::intValue).toArray(),
+                bucketVariables.stream().mapToInt(Integer::intValue).toArray(), bucketInputs.toArray(new int[0][]),
+                planJoins ? bucketJoins.toArray(new int[0][]) : null,
+                bucketSizes.stream().mapToLong(Long::longValue).toArray(), remainingFactors, remainingBuckets, answered,
+                estimateTableSize(peakScope), peakScope.stream().filter(variable -> !isSingleOutcome(variable))
+                        .mapToInt(Integer::intValue).sorted().toArray());
     }
 
     /**
-     * Checks if a node is an ancestor of another node in the network.
+     * Orders the joins of a bucket so that the intermediate tables, which are built in full, stay small.
+     * The order minimizing the total size of the intermediate tables is searched exhaustively over all join
+     * trees for small buckets; larger buckets repeatedly join the two factors with the smallest product.
+     * The last join is not counted, since it is summed out in one pass and its size is the same for every order.
      *
-     * @param potentialFather  Node to start the search from
-     * @param potentialChild Node to find in the descendants
-     * @return true if start is an ancestor of target
+     * @param inputScopes The variables of each factor of the bucket
+     * @return The operand pairs of the joins, in the format of QueryPlan.getBucketJoins
      */
-    private boolean isAncestor(Node potentialFather, Node potentialChild) {
-        Set<Node> visited = new HashSet<>();          // Create a HashSet to keep track of visited nodes to avoid revisiting
-        LinkedList<Node> queue = new LinkedList<>();  // Use a LinkedList as a queue to manage nodes to be explored in BFS order
-        queue.add(potentialFather);                             // Add the starting node to the queue as the initial node
+    private int[] planBucketJoins(List<Set<Integer>> inputScopes) {
+        int m = inputScopes.size();
+        List<Set<Integer>> operands = new ArrayList<>();
+        for (Set<Integer> scope : inputScopes) {
+            Set<Integer> kept = new HashSet<>(scope);
+            kept.removeIf(this::isSingleOutcome);       // Joins drop them, and they add nothing to a table's size
+            operands.add(kept);
+        }
+        int[] joins = new int[2 * Math.max(m - 1, 0)];
+        if (m <= 2) {
+            if (m == 2) {
+                joins[1] = 1;
+            }
+            return joins;
+        }
 
-        // Continue processing nodes until there are no more nodes left in the queue
-        while (!queue.isEmpty()) {
-            Node current = queue.poll();              // Remove the front node from the queue to process it
+        if (m <= OPTIMAL_JOIN_LIMIT) {
+            // best[set] is the least total size of the tables built to join a subset of the factors into one
+            int full = (1 << m) - 1;
+            long[] size = new long[full + 1];
+            long[] best = new long[full + 1];
+            int[] split = new int[full + 1];
+            for (int set = 1; set <= full; set++) {
+                Set<Integer> scope = new HashSet<>();
+                for (int i = 0; i < m; i++) {
+                    if ((set & (1 << i)) != 0) {
+                        scope.addAll(operands.get(i));
+                    }
+                }
+                size[set] = estimateTableSize(scope);
+                if (Integer.bitCount(set) == 1) {
+                    continue;
+                }
+                best[set] = Long.MAX_VALUE;
+                int lowest = Integer.lowestOneBit(set);
+                for (int part = (set - 1) & set; part > 0; part = (part - 1) & set) {
+                    if ((part & lowest) != 0) {     // Each split once, with the lowest factor on the left
+                        long cost = saturatedAdd(best[part], best[set ^ part]);
+                        if (cost < best[set]) {
+                            best[set] = cost;
+                            split[set] = part;
+                        }
+                    }
+                }
+                if (set != full) {
+                    best[set] = saturatedAdd(best[set], size[set]);
+                }
+            }
+            int[] next = {m, 0};                    // The id of the next joined factor, and the next free pair
+            emitJoins(full, split, joins, next);
+            return joins;
+        }
 
-            // If the current node is the target, return true indicating 'start' is an ancestor of 'target'
-            if (current.equals(potentialChild)) {
-                return true;
+        // Greedy: join the two live factors with the smallest product until two remain
+        List<Integer> live = new ArrayList<>();
+        for (int i = 0; i < m; i++) {
+            live.add(i);
+        }
+        int pair = 0;
+        while (live.size() > 2) {
+            int bestI = 0;
+            int bestJ = 1;
+            long bestSize = Long.MAX_VALUE;
+            for (int i = 0; i < live.size(); i++) {
+                for (int j = i + 1; j < live.size(); j++) {
+                    Set<Integer> scope = new HashSet<>(operands.get(live.get(i)));
+                    scope.addAll(operands.get(live.get(j)));
+                    long size = estimateTableSize(scope);
+                    if (size < bestSize) {
+                        bestSize = size;
+                        bestI = i;
+                        bestJ = j;
+                    }
+                }
             }
+            Set<Integer> scope = new HashSet<>(operands.get(live.get(bestI)));
+            scope.addAll(operands.get(live.get(bestJ)));
+            joins[pair++] = live.get(bestI);
+            joins[pair++] = live.get(bestJ);
+            live.remove(bestJ);
+            live.remove(bestI);
+            live.add(operands.size());
+            operands.add(scope);
+        }
+        joins[pair++] = live.get(0);
+        joins[pair] = live.get(1);
+        return joins;
+    }
+
+    /**
+     * Writes the joins of the best join tree of a set of factors, children first.
+     *
+     * @param set   The set of factors, as a bit mask of their indices
+     * @param split The left part of the best split of each set
+     * @param joins The operand pairs being written
+     * @param next  The id of the next joined factor and the next free position of joins, both advanced
+     * @return The id of the factor joining the set
+     */
+    private static int emitJoins(int set, int[] split, int[] joins, int[] next) {
+        if (Integer.bitCount(set) == 1) {
+            return Integer.numberOfTrailingZeros(set);
+        }
+        int left = emitJoins(split[set], split, joins, next);
+        int right = emitJoins(set ^ split[set], split, joins, next);
+        joins[next[1]++] = left;
+        joins[next[1]++] = right;
+        return next[0]++;
+    }
+
+    /**
+     * Estimates the number of rows of a table over some variables once the evidence is applied.
+     *
+     * @param scope The ids of the variables
+     * @return The product of the cardinalities of the unobserved ones, capped at Long.MAX_VALUE
+     */
+    private long estimateTableSize(Set<Integer> scope) {
+        long size = 1;
+        for (int variable : scope) {
+            int cardinality = isSingleOutcome(variable) ? 1 : symbols.getCardinality(variable);
+            size = size > Long.MAX_VALUE / cardinality ? Long.MAX_VALUE : size * cardinality;
+        }
+        return size;
+    }
+
+    /**
+     * Adds two table sizes.
+     *
+     * @param a The first size
+     * @param b The second size
+     * @return Their sum, capped at Long.MAX_VALUE
+     */
+    private static long saturatedAdd(long a, long b) {
+        return a > Long.MAX_VALUE - b ? Long.MAX_VALUE : a + b;
+    }
+
+    /**
+     * Checks whether a variable keeps a single outcome once the evidence is applied, so joins drop it.
+     *
+     * @param variable The id of the variable
+     * @return true if it is observed or has a single outcome in the network
+     */
+    private boolean isSingleOutcome(int variable) {
+        Node node = network.getNodeByName(symbols.getVariableName(variable));
+        return nodeEvidenceMap.containsKey(node) || symbols.getCardinality(variable) == 1;
+    }
 
-            // Iterate over each child of the current node to explore its descendants
-            for (Node child : current.getChildren()) {
-                if (!visited.contains(child)) {       // Check if the child has not been visited to avoid processing the same node multiple times
-                    visited.add(child);               // Mark the child as visited by adding it to the 'visited' set
-                    queue.add(child);                 // Add the child to the queue for future exploration
+    /**
+     * Determines, from the variables of the factors alone, if a non-empty factor already holds the normalized
+     * posterior of the query, so that no further elimination is needed.
+     * Without evidence this is the case once the factor is over the query alone and every other factor left
+     * is a constant. With evidence it is the case for the query's own CPT when all its parents are observed
+     * and no other factor left involves the query. The runs of a conditioned query are never answered directly,
+     * since their joint tables are summed.
+     *
+     * @param slot   The slot of the factor
+     * @param scopes The variables of each slot
+     * @param empty  Whether each slot has an empty table
+     * @param live   The slots not joined yet
+     * @return true if the factor provides a direct answer
+     */
+    private boolean isDirectAnswer(int slot, List<Set<Integer>> scopes, List<Boolean> empty, List<Integer> live) {
+        int query = queryNode.getNodeId();
+        if (!conditionedNodes.isEmpty() || queryOutcome < 0 || nodeEvidenceMap.containsKey(queryNode)
+                || !scopes.get(slot).contains(query)) {
+            return false;
+        }
+        for (int variable : scopes.get(slot)) {
+            if (variable != query && !isSingleOutcome(variable)) {
+                return false;
+            }
+        }
+        for (int other : live) {
+            if (other == slot) {
+                continue;
+            }
+            if (empty.get(other) || scopes.get(other).contains(query)) {
+                return false;
+            }
+            for (int variable : scopes.get(other)) {
+                if (evidenceNodes.isEmpty() && !isSingleOutcome(variable)) {
+                    return false;
                 }
             }
         }
-        return false;           // If the queue is still empty and the target has not been found, return false.
+        return evidenceNodes.isEmpty() || slot < factors.size();
     }
 
+    /**
+     * Applies evidence to the factors, means minimize them according to their states.
+     */
+    private void applyEvidence() {
+        int[] evidenceVariables = new int[nodeEvidenceMap.size()];
+        int[] evidenceOutcomes = new int[nodeEvidenceMap.size()];
+
+        // Collect the ids of the evidence variables and their observed outcome indices
+        int i = 0;
+        for (Map.Entry<Node, Integer> entry : nodeEvidenceMap.entrySet()) {
+            evidenceVariables[i] = entry.getKey().getNodeId();
+            evidenceOutcomes[i++] = entry.getValue();
+        }
+
+        // Apply the evidence to each factor
+        for (Factor factor : factors) {
+            boolean involvesEvidence = false;
+            // Check if the factor involves any of the evidence variables
+            for (int variable : evidenceVariables) {
+                if (factor.involvesVariable(variable)) {
+                    involvesEvidence = true;
+                    break;
+                }
+            }
+            if (involvesEvidence) {
+                factor.filterRows(evidenceVariables, evidenceOutcomes);
+            }
+        }
+    }
 
     /**
      * Retrieves the final answer for the query.
@@ -361,61 +1026,51 @@ public class VariableElimination {
      * @return String representation of the final probability, addition count, and multiplication count
      */
     public String getFinalAnswer() {
+        if (budgetOutcome == MemoryBudget.Outcome.REJECTED) {
+            return "Error: The query needs a table of " + plan.getPeakTableSize() + " rows, over the memory budget of "
+                    + budget.getMaxTableSize() + " rows.";
+        }
+        if (budgetOutcome == MemoryBudget.Outcome.CONDITIONED) {
+            return String.format("%.5f,%d,%d", conditionedProbability, context.getAdditionCount(), context.getMultiplicationCount());
+        }
         double probability = 0;
 
         // Find the factor that involves the query node and retrieve the probability
         for (Factor factor : factors) {
-            if (factor.involvesVariable(queryNode.getNodeName())) {
-                probability = factor.getProbability(queryNode.getNodeName(), queryOutcome);
+            if (factor.involvesVariable(queryNode.getNodeId())) {
+                probability = factor.getProbability(queryNode.getNodeId(), queryOutcome);
                 break;
             }
         }
 
-        return String.format("%.5f,%d,%d", probability, Factor.getAdditionCount(), Factor.getMultiplicationCount());
+        return String.format("%.5f,%d,%d", probability, context.getAdditionCount(), context.getMultiplicationCount());
     }
 
     /**
-     * Determines if the provided factor offers a direct answer to the query without further elimination.
+     * Retrieves how the query was fitted into the memory budget.
      *
-     * @param factor The factor to check
-     * @return true if the factor provides a direct answer
+     * @return The outcome of the budget check
      */
-    private boolean isDirectAnswer(Factor factor) {
-        boolean foundQueryOutcome = false;      // Flag to indicate if the query outcome is found
-        String otherKey = null;                 // Variable to store a key that does not contain the query outcome
-
-        // Check if the factor's probability table contains the query outcome
-        for (String key : factor.getProbabilityTable().keySet()) {
-            if (key.contains(queryNode.getNodeName() + "=" + queryOutcome)) {
-                foundQueryOutcome = true;       // Set the flag if the query outcome is found
-            } else {
-                otherKey = key;                 // Store the other key that does not contain the query outcome
-            }
-        }
-
-        // If the query outcome is found and there are no evidence nodes, it's a direct answer
-        if (foundQueryOutcome && this.evidenceNodes.size() == 0){
-            return true;
-        }
-
-        // If the query outcome is found and there is another key
-        if (foundQueryOutcome && otherKey != null) {
-            // Check if the other key contains exactly one piece of evidence
-            int evidenceCount = 0;
+    public MemoryBudget.Outcome getBudgetOutcome() {
+        return budgetOutcome;
+    }
 
-            // Check if the other key contains exactly one piece of evidence
-            for (Node evidenceNode : evidenceNodes) {
-                if (otherKey.contains(evidenceNode.getNodeName() + "=")) {
-                    evidenceCount++;
-                }
-            }
+    /**
+     * Retrieves the size of the largest table the plan of the query may build, as estimated before it ran.
+     *
+     * @return The number of rows, capped at Long.MAX_VALUE
+     */
+    public long getEstimatedPeakTableSize() {
+        return plan.getPeakTableSize();
+    }
 
-            // If the other key contains exactly one piece of evidence, it's a direct answer
-            if (evidenceCount == 1) {
-                return true;    // The factor provides a direct answer to the query
-            }
-        }
-        return false;
+    /**
+     * Retrieves the size of the largest table the query created, which bounds the memory it needed.
+     *
+     * @return The number of rows of the peak intermediate table
+     */
+    public int getPeakTableSize() {
+        return context.getPeakTableSize();
     }
 
     /**
@@ -442,15 +1097,13 @@ public class VariableElimination {
 
         // Find the factor that involves the query node
         for (Factor factor : factors) {
-            if (factor.involvesVariable(queryNode.getNodeName())) {
+            if (factor.involvesVariable(queryNode.getNodeId())) {
                 factorForQueryNode = factor;
                 break;
             }
         }
         if (factorForQueryNode != null) {
-            factorForQueryNode.normalize();
+            factorForQueryNode.normalize(context);
         }
     }
 }
-
-
@@ -38,6 +38,7 @@ public class XMLParser {
             }
             Node node = new Node(name);
             node.addPossibleStates(new ArrayList<>(outcomes));
+            node.setNodeId(network.getSymbolTable().addVariable(name, outcomes));
             network.addNode(node);
         }
 
@@ -62,9 +63,10 @@ public class XMLParser {
             // Set the CPT for the node
             String[] probabilities = element.getElementsByTagName("TABLE").item(0).getTextContent().trim().split("\\s+");
             forNode.buildCPT(probabilities);
-            forNode.setFactor(forNode.createFactor());
+            forNode.setFactor(forNode.createFactor(network.getSymbolTable()));
         }
 
+        network.indexStructure();       // The structure is final, so its indexes are built once here
         return network;
     }
 }